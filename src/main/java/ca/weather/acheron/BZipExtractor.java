@@ -19,11 +19,13 @@
 
 package ca.weather.acheron;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
@@ -58,5 +60,25 @@ public class BZipExtractor {
 		return outputFilename;
 	}
 
+	/**
+	 * Open a stream that decompresses a BZip2 file as it is read, without writing the
+	 * extracted contents to disk.
+	 *
+	 * @param bzipFile The location of the BZip2 file.
+	 * @return A stream of the decompressed contents. The caller is responsible for closing it.
+	 * @throws FileNotFoundException If the input file does not exist.
+	 * @throws IOException If the input file is not a proper BZip2 file.
+	 */
+	public static InputStream open(String bzipFile) throws FileNotFoundException, IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(bzipFile), 64 * 1024);
+		try {
+			return new BZip2CompressorInputStream(in);
+		}
+		catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
 	private BZipExtractor() { }
 }
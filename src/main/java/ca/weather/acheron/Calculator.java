@@ -28,14 +28,19 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,6 +60,7 @@ import ca.hss.times.WorldLocation;
 import ca.weather.forecast.Model;
 import ca.weather.forecast.Province;
 import ca.weather.forecast.Time;
+import ca.weather.internal.DaemonThreadFactory;
 
 /**
  * A class for computing collecting Canadian weather forecast information.
@@ -71,9 +77,14 @@ public class Calculator {
 	private TimeZoneInfo timezone;
 	private Calendar date;
 	private boolean ignorePrecipitation = false;
-	private int percentile = -1;
+	private int[] percentiles = new int[] { -1 };
 	private static String saveDir = null;
 	private boolean dataError = false;
+	private int parallelism = 1;
+	private boolean parallelMembers = false;
+	private int forecastHorizon = Integer.MAX_VALUE;
+	private ProductSpec productSpec = new ProductSpec();
+	private ExecutorService executor = null;
 
 	public Calculator() {
 		locations = new ArrayList<LocationWeather>();
@@ -107,7 +118,42 @@ public class Calculator {
 	 * @param perc The new percentile value.
 	 */
 	public void setPercentile(int perc) {
-		percentile = perc;
+		percentiles = new int[] { perc };
+	}
+
+	/**
+	 * Set several percentile values to calculate from a single pass over the forecast
+	 * data. The first percentile is the one returned by {@link LocationWeather#getHourData()}
+	 * and {@link LocationWeather#getDayData()}, duplicates are ignored.
+	 * 
+	 * @param percs The percentile values.
+	 */
+	public void setPercentiles(int... percs) {
+		if (percs == null || percs.length == 0)
+			throw new IllegalArgumentException("At least one percentile is required");
+		int[] unique = new int[percs.length];
+		int count = 0;
+		for (int perc : percs) {
+			boolean found = false;
+			for (int i = 0; i < count; i++) {
+				if (unique[i] == perc) {
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				unique[count++] = perc;
+		}
+		percentiles = Arrays.copyOf(unique, count);
+	}
+
+	/**
+	 * Get the percentile values that will be calculated.
+	 * 
+	 * @return The percentile values.
+	 */
+	public int[] getPercentiles() {
+		return percentiles.clone();
 	}
 
 	/**
@@ -217,19 +263,113 @@ public class Calculator {
 	}
 
 
+	/**
+	 * Set how far into the future to calculate weather. Only the forecasts up to the
+	 * horizon are read from the ensemble files, so shorter horizons are faster to
+	 * calculate. The ensemble files have a forecast every 6 hours out to 384 hours.
+	 * @param hours The last forecast hour to use, or 0 to use every forecast.
+	 */
+	public void setForecastHorizon(int hours) {
+		forecastHorizon = hours <= 0 ? Integer.MAX_VALUE : hours;
+	}
+
+	/**
+	 * Get how far into the future weather is calculated.
+	 * @return The last forecast hour that is used, or 0 if every forecast is used.
+	 */
+	public int getForecastHorizon() {
+		return forecastHorizon == Integer.MAX_VALUE ? 0 : forecastHorizon;
+	}
+
+	/**
+	 * Set which variables and member series the calculation has to produce. Anything
+	 * that isn't needed is skipped. Precipitation is also skipped when it is being
+	 * ignored, see {@link #setIgnorePrecipitation(boolean)}.
+	 * @param spec The product specification.
+	 */
+	public void setProductSpec(ProductSpec spec) {
+		productSpec = spec == null ? new ProductSpec() : spec;
+	}
+
+	public ProductSpec getProductSpec() {
+		return productSpec;
+	}
+
+	private Set<XMLFileType> getNeededVariables() {
+		Set<XMLFileType> variables = productSpec.getVariables();
+		if (ignorePrecipitation)
+			variables.remove(XMLFileType.PRECIPITATION);
+		return variables;
+	}
+
+	/**
+	 * Set the maximum number of locations that will be calculated at the same time.
+	 * A value of 1 (the default) calculates each location in turn on the calling thread.
+	 * Ignored if an executor has been set using {@link #setExecutor(ExecutorService)}.
+	 * @param parallelism The maximum number of concurrent location calculations.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Get the maximum number of locations that will be calculated at the same time.
+	 * @return The maximum number of concurrent location calculations.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set whether the daily values of the individual members are calculated in
+	 * parallel on the common fork/join pool. Only worth enabling when there are
+	 * few locations and all of the members are kept, see {@link ProductSpec#setMemberOutput}.
+	 * @param parallel True to split the members of each location across threads.
+	 */
+	public void setParallelMembers(boolean parallel) {
+		this.parallelMembers = parallel;
+	}
+
+	public boolean isParallelMembers() {
+		return parallelMembers;
+	}
+
+	/**
+	 * Set an executor to run the location calculations on. The executor is owned by
+	 * the caller and will not be shut down by the calculator.
+	 * @param executor The executor to use, or null to use {@link #setParallelism(int)}.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Calculates the weather information for each location. A failure for one location
+	 * does not stop the others from being calculated, see {@link #getFailedLocations()}.
+	 * Each location keeps the files it parsed, so calculating the same run again after
+	 * changing only the percentiles, members, timezone or precipitation option skips
+	 * the download and parse and only repeats the post processing.
+	 * @return False if the inputs are not yet set or if any location failed to calculate.
+	 */
 	public boolean calculate()
 	{
-		return calculate(percentile);
+		return calculate(percentiles);
 	}
 
 	/**
-	 * Calculates the weather information for each location.
-	 * @return False if the inputs are not yet set.
+	 * Calculates the weather information for each location. A failure for one location
+	 * does not stop the others from being calculated, see {@link #getFailedLocations()}.
+	 * @return False if the inputs are not yet set or if any location failed to calculate.
 	 */
 	//TODO ensure there is a network connection.
 	boolean calculate(int hack)
+	{
+		return calculate(new int[] { hack });
+	}
+
+	private boolean calculate(final int[] percs)
 			{
-		List<Integer> membersToUse = new ArrayList<Integer>();
+		final List<Integer> membersToUse = new ArrayList<Integer>();
 		dataError = false;
 		if (model == Model.CUSTOM) {
 			for (Integer i : members)
@@ -248,21 +388,111 @@ public class Calculator {
 				membersToUse.add(i);
 		if (membersToUse.size() == 0)
 			return false;
-		for (LocationWeather loc : locations) {
+		//start every locations downloads up front, as long as the parsed files will
+		//still be in the cache by the time each location is calculated
+		if (locations.size() > 1 && locations.size() * XMLFileType.values().length <= getParsedCacheSize()) {
+			for (LocationWeather loc : locations) {
+				loc.setForecastHorizon(forecastHorizon);
+				loc.setProductOutputs(getNeededVariables(), productSpec.getMemberOutput());
+				loc.prefetch((Calendar)date.clone(), time);
+			}
+		}
+		if (executor == null && (parallelism <= 1 || locations.size() <= 1)) {
 			try {
-				loc.setPercentile(hack);
-				boolean b = loc.calculate(membersToUse, model, members, timezone, date, time, ignorePrecipitation);
-				if (!b)
-				    dataError = true;
+				for (LocationWeather loc : locations)
+					calculateLocation(loc, membersToUse, percs);
 			}
-			catch (Exception e) {
-				e.printStackTrace();
+			catch (InterruptedException e) {
+				//an interrupt stops the calculation, it isn't a failure of the location
+				Thread.currentThread().interrupt();
 				return false;
 			}
 		}
-		return true;
+		else {
+			ExecutorService service = executor;
+			if (service == null)
+				service = Executors.newFixedThreadPool(Math.min(parallelism, locations.size()), new DaemonThreadFactory("acheron-calculator"));
+			List<Future<?>> futures = new ArrayList<Future<?>>(locations.size());
+			try {
+				for (final LocationWeather loc : locations) {
+					futures.add(service.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws InterruptedException {
+							calculateLocation(loc, membersToUse, percs);
+							return null;
+						}
+					}));
+				}
+				for (Future<?> future : futures)
+					future.get();
+			}
+			catch (InterruptedException e) {
+				for (Future<?> future : futures)
+					future.cancel(true);
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			catch (ExecutionException e) {
+				//a worker that was interrupted, for example by shutting down the executor, stops the calculation
+				for (Future<?> future : futures)
+					future.cancel(true);
+				if (!(e.getCause() instanceof InterruptedException))
+					e.printStackTrace();
+				return false;
+			}
+			finally {
+				if (service != executor)
+					service.shutdown();
+			}
+		}
+		boolean retval = true;
+		for (LocationWeather loc : locations) {
+			if (loc.getCalculationError() != null)
+				retval = false;
+			else if (loc.isDataError())
+				dataError = true;
+		}
+		return retval;
 	}
-	
+
+	/**
+	 * Calculate a single location, recording any failure on the location instead of
+	 * propagating it so that the remaining locations can still be calculated.
+	 * @throws InterruptedException Thrown if the calculation was interrupted, the location is not marked as failed.
+	 */
+	private void calculateLocation(LocationWeather loc, List<Integer> membersToUse, int[] percs) throws InterruptedException {
+		try {
+			loc.setPercentiles(percs);
+			loc.setForecastHorizon(forecastHorizon);
+			loc.setProductOutputs(getNeededVariables(), productSpec.getMemberOutput());
+			loc.setStatisticOutputs(productSpec.getStatistics(), productSpec.getConfidenceZ());
+			loc.setParallelMembers(parallelMembers);
+			//each location gets its own copy, Calendar is not safe to read from multiple threads
+			loc.calculate(membersToUse, model, members, timezone, (Calendar)date.clone(), time, ignorePrecipitation);
+		}
+		catch (InterruptedException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			loc.setCalculationError(e);
+		}
+	}
+
+	/**
+	 * Get the locations that failed to calculate during the last call to {@link #calculate()}.
+	 * The cause of each failure is available from {@link LocationWeather#getCalculationError()}.
+	 * @return A list of the locations that could not be calculated.
+	 */
+	public List<LocationWeather> getFailedLocations() {
+		List<LocationWeather> failed = new ArrayList<LocationWeather>();
+		for (LocationWeather loc : locations) {
+			if (loc.getCalculationError() != null)
+				failed.add(loc);
+		}
+		return failed;
+	}
+
 	/**
 	 * Was there an error in the last downloaded ensemble data set.
 	 * @return True if there was an error, false otherwise.
@@ -316,6 +546,8 @@ public class Calculator {
 	}
 
 	private static List<LocationSmall> locationList = null;
+	private static List<LocationSmall> catalogSource = null;
+	private static StationCatalog stationCatalog = null;
 	public static synchronized List<LocationSmall> getLocations() {
 		if (locationList != null)
 			return locationList;
@@ -325,19 +557,26 @@ public class Calculator {
 		
 		try {
 			URL website = new URL(path);
-			out_loc = WebDownloader.download(website);
 			if (saveDir != null && saveDir.length() > 0) {
-				Path out = Paths.get(saveDir);
-				Files.createDirectories(out);
-				out = out.resolve("locations.xml");
-				Files.copy(Paths.get(out_loc), out, StandardCopyOption.REPLACE_EXISTING);
-				Files.delete(Paths.get(out_loc));
+				//revalidate the saved copy so an unchanged list isn't downloaded again
+				Path out = Paths.get(saveDir).resolve("locations.xml");
 				out_loc = out.toString();
+				try {
+					ConditionalDownloader.download(website, out);
+				}
+				catch (IOException e) {
+					if (!Files.exists(out))
+						throw e;
+				}
 			}
+			else
+				out_loc = WebDownloader.download(website);
 		}
 		catch (IOException e) {
 			return locationList;
 		}
+		if (readLocationSnapshot(out_loc))
+			return locationList;
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		DocumentBuilder db;
 		Document dom;
@@ -367,18 +606,20 @@ public class Calculator {
 
 			n = n.getNextSibling();
 		}
+		writeLocationSnapshot(out_loc);
 		return locationList;
 	}
 
-	public static List<LocationSmall> getOfflineLocations() {
+	public static synchronized List<LocationSmall> getOfflineLocations() {
 		if (locationList != null) {
 			return locationList;
 		}
 		locationList = new ArrayList<LocationSmall>();
 		
 		if (saveDir != null && saveDir.length() > 0) {
-			File locations = new File(saveDir + "\\locations.xml");
-			String out_loc = locations.getAbsolutePath();
+			String out_loc = Paths.get(saveDir, "locations.xml").toAbsolutePath().toString();
+			if (readLocationSnapshot(out_loc))
+				return locationList;
 			
 			if (Files.exists(Paths.get(out_loc))) {
 				DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -420,35 +661,70 @@ public class Calculator {
 				catch (Exception e) {
 					return null;
 				}*/
+				writeLocationSnapshot(out_loc);
 			}
 		}
 
 		return locationList;
 	}
+
+	/**
+	 * Fill the location list from the binary snapshot next to a saved locations.xml,
+	 * if there is one and the XML file hasn't changed since it was written.
+	 * @param xmlPath The path to the saved locations.xml.
+	 * @return True if the locations were read from the snapshot.
+	 */
+	private static boolean readLocationSnapshot(String xmlPath) {
+		if (saveDir == null || saveDir.length() == 0)
+			return false;
+		Path xml = Paths.get(xmlPath);
+		List<LocationSmall> list = LocationSnapshot.read(xml.resolveSibling(LocationSnapshot.FILE_NAME), xml);
+		if (list == null)
+			return false;
+		locationList.addAll(list);
+		return true;
+	}
+
+	/**
+	 * Save the location list as a binary snapshot next to the saved locations.xml so
+	 * the next process can skip parsing the XML.
+	 */
+	private static void writeLocationSnapshot(String xmlPath) {
+		if (saveDir == null || saveDir.length() == 0)
+			return;
+		Path xml = Paths.get(xmlPath);
+		try {
+			LocationSnapshot.write(xml.resolveSibling(LocationSnapshot.FILE_NAME), xml, locationList);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 	
+	/**
+	 * Get the locations in a province.
+	 * @param prov The province.
+	 * @return The locations whose name ends with the provinces abbreviation.
+	 */
 	public static List<LocationSmall> getLocations(Province prov) {
-		List<LocationSmall> list = getLocations();
-		List<LocationSmall> provList = new ArrayList<LocationSmall>();
-		Iterator<LocationSmall> it = list.iterator();
-		String abbv = prov.abbreviation();
-		while (it.hasNext()) {
-			LocationSmall place = it.next();
-			int charMarker = place.locationName.length();
-			char[] placeChar = place.locationName.toCharArray();
-			if (placeChar[--charMarker] == 'A' || placeChar[--charMarker] == 'a') {
-				if (placeChar[--charMarker] == 'C' || placeChar[--charMarker] == 'c') {
-					--charMarker;
-					char[] chars = new char[] { placeChar[--charMarker], placeChar[--charMarker] };
-					char tmp = chars[0];
-					chars[0] = chars[1];
-					chars[1] = tmp;
-					String provinceID = new String(chars);
-					if (provinceID.compareToIgnoreCase(abbv) == 0)
-						provList.add(place);
-				}
-			}
+		return new ArrayList<LocationSmall>(getStationCatalog().getStations(prov));
+	}
+
+	/**
+	 * Get an indexed catalog of the forecast locations that can be searched by name,
+	 * province, or distance. The catalog is built once from the location list, which
+	 * is downloaded if it hasn't been loaded yet.
+	 * @return The location catalog.
+	 */
+	public static synchronized StationCatalog getStationCatalog() {
+		List<LocationSmall> list = locationList;
+		if (list == null)
+			list = getLocations();
+		if (stationCatalog == null || catalogSource != list) {
+			stationCatalog = new StationCatalog(list);
+			catalogSource = list;
 		}
-		return provList;
+		return stationCatalog;
 	}
 
 	private static String getValue(Element el) {
@@ -582,4 +858,101 @@ public class Calculator {
 	public static String getSaveDir() {
 		return saveDir;
 	}
+
+	/**
+	 * Enable a cache of downloaded ensemble files on the local disk. Files for a model
+	 * run are reused by every later calculation for the same run, date, variable and
+	 * location instead of being downloaded again.
+	 * 
+	 * @param dir The directory to store the cached files in, or null to disable the cache.
+	 */
+	public static void setCacheDir(String dir) {
+		EnsembleFileCache.configure(dir, EnsembleFileCache.getMaxBytes(), EnsembleFileCache.getRetentionHours());
+	}
+
+	public static String getCacheDir() {
+		return EnsembleFileCache.getCacheDir();
+	}
+
+	/**
+	 * Set the maximum size of the ensemble file cache. When it is exceeded the least
+	 * recently used files are removed. Defaults to 1 GiB.
+	 * 
+	 * @param bytes The maximum total size of the cached files in bytes.
+	 */
+	public static void setCacheMaxSize(long bytes) {
+		EnsembleFileCache.configure(EnsembleFileCache.getCacheDir(), bytes, EnsembleFileCache.getRetentionHours());
+	}
+
+	/**
+	 * Set how long the files for a model run are kept in the ensemble file cache,
+	 * measured from the start of the run. Defaults to 48 hours.
+	 * 
+	 * @param hours The number of hours to keep a runs files.
+	 */
+	public static void setCacheRetention(int hours) {
+		EnsembleFileCache.configure(EnsembleFileCache.getCacheDir(), EnsembleFileCache.getMaxBytes(), hours);
+	}
+
+	/**
+	 * Set the number of parsed ensemble files kept in memory and shared between every
+	 * calculator in the process. Each location uses five files per model run. Defaults
+	 * to 200, a value of 0 disables the in-memory cache.
+	 * 
+	 * @param files The maximum number of parsed files to keep.
+	 */
+	public static void setParsedCacheSize(int files) {
+		ParsedEnsembleCache.getInstance().setMaxEntries(files);
+	}
+
+	public static int getParsedCacheSize() {
+		return ParsedEnsembleCache.getInstance().getMaxEntries();
+	}
+
+	/**
+	 * Remove all parsed ensemble files from the in-memory cache.
+	 */
+	public static void clearParsedCache() {
+		ParsedEnsembleCache.getInstance().clear();
+	}
+
+	/**
+	 * Stop the locations from keeping the parsed files of their last calculation for
+	 * reuse, the next calculation will get its files from the parsed file cache or
+	 * download them again.
+	 */
+	public void releaseParsedInputs() {
+		for (LocationWeather loc : locations)
+			loc.releaseParsedFiles();
+	}
+
+	/**
+	 * Set the maximum number of ensemble files downloaded from the same server at once.
+	 * Downloads for every variable and location are started together and queue until a
+	 * connection is free. Defaults to 6.
+	 * 
+	 * @param connections The maximum number of concurrent downloads per server.
+	 */
+	public static void setConnectionsPerHost(int connections) {
+		EnsembleFetcher.getInstance().setConnectionsPerHost(connections);
+	}
+
+	public static int getConnectionsPerHost() {
+		return EnsembleFetcher.getInstance().getConnectionsPerHost();
+	}
+
+	/**
+	 * Set the number of times to try downloading an ensemble file before the locations
+	 * that need it are marked as failed. Attempts are spaced out by an increasing delay
+	 * and an interrupted download continues from where it stopped. Defaults to 4.
+	 * 
+	 * @param attempts The maximum number of attempts for each file.
+	 */
+	public static void setDownloadAttempts(int attempts) {
+		EnsembleFetcher.getInstance().setMaxAttempts(attempts);
+	}
+
+	public static int getDownloadAttempts() {
+		return EnsembleFetcher.getInstance().getMaxAttempts();
+	}
 }
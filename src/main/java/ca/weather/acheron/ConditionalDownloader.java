@@ -0,0 +1,180 @@
+/***********************************************************************
+ * REDapp - ConditionalDownloader.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps a local copy of a remote file up to date using conditional requests.
+ * <p>
+ * The ETag and Last-Modified headers returned with a file are stored in a
+ * sidecar file next to the local copy. The next download of the same URL sends
+ * them back as If-None-Match and If-Modified-Since, and if the server answers
+ * 304 Not Modified the local copy is used without transferring the file again.
+ */
+final class ConditionalDownloader {
+	private static final String VALIDATOR_SUFFIX = ".validators";
+	private static final int MAX_REDIRECTS = 5;
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private ConditionalDownloader() { }
+
+	/**
+	 * Make sure a local file holds the current contents of a URL.
+	 * @param url The file to download.
+	 * @param target Where the local copy is kept.
+	 * @return True if the file was downloaded, false if the local copy was still current.
+	 * @throws IOException If the file could not be downloaded.
+	 */
+	static boolean download(URL url, Path target) throws IOException {
+		Path validatorPath = target.resolveSibling(target.getFileName() + VALIDATOR_SUFFIX);
+		Properties validators = new Properties();
+		//only revalidate if the local copy came from the same URL
+		if (Files.exists(target) && Files.exists(validatorPath)) {
+			try (InputStream in = Files.newInputStream(validatorPath)) {
+				validators.load(in);
+			}
+			catch (IOException e) {
+				validators.clear();
+			}
+			if (!url.toString().equals(validators.getProperty("url")))
+				validators.clear();
+		}
+
+		Map<String, String> headers = new HashMap<String, String>();
+		String etag = validators.getProperty("etag");
+		if (etag != null)
+			headers.put("If-None-Match", etag);
+		String modified = validators.getProperty("last-modified");
+		if (modified != null)
+			headers.put("If-Modified-Since", modified);
+		HttpURLConnection connection = connect(url, headers);
+		int code = connection.getResponseCode();
+
+		try {
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && !validators.isEmpty())
+				return false;
+			if (code != HttpURLConnection.HTTP_OK)
+				throw new HttpStatusException(code, connection.getURL());
+
+			Path dir = target.toAbsolutePath().getParent();
+			Files.createDirectories(dir);
+			Path part = Files.createTempFile(dir, target.getFileName().toString(), ".part");
+			try {
+				try (InputStream in = connection.getInputStream(); OutputStream out = Files.newOutputStream(part)) {
+					byte[] buffer = new byte[65536];
+					int read;
+					while ((read = in.read(buffer)) >= 0)
+						out.write(buffer, 0, read);
+				}
+				try {
+					Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e) {
+					Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally {
+				Files.deleteIfExists(part);
+			}
+
+			Properties received = new Properties();
+			etag = connection.getHeaderField("ETag");
+			modified = connection.getHeaderField("Last-Modified");
+			if (etag != null)
+				received.setProperty("etag", etag);
+			if (modified != null)
+				received.setProperty("last-modified", modified);
+			if (received.isEmpty())
+				Files.deleteIfExists(validatorPath);
+			else {
+				received.setProperty("url", url.toString());
+				try (OutputStream out = Files.newOutputStream(validatorPath)) {
+					received.store(out, null);
+				}
+			}
+			return true;
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Open a connection to a URL, following any redirects.
+	 * @param url The URL to request.
+	 * @param headers Request headers to send with every request.
+	 * @return The connection to the final URL, its response code has already been received.
+	 * @throws IOException If the server could not be reached or there were too many redirects.
+	 */
+	static HttpURLConnection connect(URL url, Map<String, String> headers) throws IOException {
+		URL current = url;
+		for (int redirects = 0; ; redirects++) {
+			URLConnection c = current.openConnection();
+			if (!(c instanceof HttpURLConnection))
+				throw new IOException("Unsupported protocol " + current.getProtocol());
+			HttpURLConnection connection = (HttpURLConnection)c;
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			//redirects are followed here because the default handling won't switch from http to https
+			connection.setInstanceFollowRedirects(false);
+			for (Map.Entry<String, String> header : headers.entrySet())
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			int code = connection.getResponseCode();
+			if (code < 300 || code >= 400 || code == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return connection;
+			String location = connection.getHeaderField("Location");
+			connection.disconnect();
+			if (location == null || redirects >= MAX_REDIRECTS)
+				throw new IOException("Too many redirects for " + url);
+			current = new URL(current, location);
+		}
+	}
+
+	/**
+	 * The server answered a request with an unexpected status code.
+	 */
+	static final class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int code;
+
+		HttpStatusException(int code, URL url) {
+			super("Server returned HTTP " + code + " for " + url);
+			this.code = code;
+		}
+
+		int getCode() {
+			return code;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/***********************************************************************
+ * REDapp - DailySeries.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A column oriented series of daily weather values. Dates are stored as days
+ * since 1970-01-01 and each variable is stored in its own array, {@link Day}
+ * objects are only views onto a row of the series.
+ */
+final class DailySeries {
+	static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+	private int size = 0;
+	private int[] days;
+	private double[] min_temp;
+	private double[] max_temp;
+	private double[] rh;
+	private double[] precip;
+	private double[] min_ws;
+	private double[] max_ws;
+	private double[] min_wg;
+	private double[] max_wg;
+	private double[] wd;
+
+	DailySeries(int capacity) {
+		capacity = Math.max(capacity, 1);
+		days = new int[capacity];
+		min_temp = new double[capacity];
+		max_temp = new double[capacity];
+		rh = new double[capacity];
+		precip = new double[capacity];
+		min_ws = new double[capacity];
+		max_ws = new double[capacity];
+		min_wg = new double[capacity];
+		max_wg = new double[capacity];
+		wd = new double[capacity];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add a day to the end of the series.
+	 * @param day The date in days since the epoch.
+	 * @return The index of the new day.
+	 */
+	int add(int day, double minTemp, double maxTemp, double rh, double precip, double minWs, double maxWs,
+			double minGust, double maxGust, double wd) {
+		if (size == days.length)
+			grow();
+		this.days[size] = day;
+		this.min_temp[size] = minTemp;
+		this.max_temp[size] = maxTemp;
+		this.rh[size] = rh;
+		this.precip[size] = precip;
+		this.min_ws[size] = minWs;
+		this.max_ws[size] = maxWs;
+		this.min_wg[size] = minGust;
+		this.max_wg[size] = maxGust;
+		this.wd[size] = wd;
+		return size++;
+	}
+
+	private void grow() {
+		int capacity = days.length * 2;
+		days = Arrays.copyOf(days, capacity);
+		min_temp = Arrays.copyOf(min_temp, capacity);
+		max_temp = Arrays.copyOf(max_temp, capacity);
+		rh = Arrays.copyOf(rh, capacity);
+		precip = Arrays.copyOf(precip, capacity);
+		min_ws = Arrays.copyOf(min_ws, capacity);
+		max_ws = Arrays.copyOf(max_ws, capacity);
+		min_wg = Arrays.copyOf(min_wg, capacity);
+		max_wg = Arrays.copyOf(max_wg, capacity);
+		wd = Arrays.copyOf(wd, capacity);
+	}
+
+	int getDay(int i) {
+		return days[i];
+	}
+
+	/**
+	 * Get the date of a day formatted as dd/MM/yyyy.
+	 */
+	String getDate(int i) {
+		return DATE_FORMAT.format(getLocalDate(i));
+	}
+
+	LocalDate getLocalDate(int i) {
+		return LocalDate.ofEpochDay(days[i]);
+	}
+
+	double getMinTemperature(int i) {
+		return min_temp[i];
+	}
+
+	double getMaxTemperature(int i) {
+		return max_temp[i];
+	}
+
+	double getRelativeHumidity(int i) {
+		return rh[i];
+	}
+
+	double getPrecipitation(int i) {
+		return precip[i];
+	}
+
+	double getMinWindSpeed(int i) {
+		return min_ws[i];
+	}
+
+	double getMaxWindSpeed(int i) {
+		return max_ws[i];
+	}
+
+	double getMinWindGust(int i) {
+		return min_wg[i];
+	}
+
+	double getMaxWindGust(int i) {
+		return max_wg[i];
+	}
+
+	double getWindDirection(int i) {
+		return wd[i];
+	}
+
+	/**
+	 * Get a view of a day in the series.
+	 */
+	Day get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException();
+		return new Day(this, i);
+	}
+
+	/**
+	 * Get an unmodifiable list view of the series.
+	 */
+	List<Day> asList() {
+		return new AbstractList<Day>() {
+			@Override
+			public Day get(int index) {
+				return DailySeries.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
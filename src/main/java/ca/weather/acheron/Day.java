@@ -24,49 +24,32 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.time.LocalDate;
 import java.util.List;
 
 /**
- * Stores information about a days weather information.
+ * Stores information about a days weather information. A day is a view onto
+ * one row of a column oriented daily series.
  * 
  * @author Travis Redpath
  *
  */
 public class Day {
-	private String date;
-	private double min_temp;
-	private double max_temp;
-	private double rh;
-	private double precip;
-	private double min_ws;
-	private double max_ws;
-	private double min_wg;
-	private double max_wg;
-	private double wd;
-	private static final DecimalFormat formatter = new DecimalFormat("#.#");
-	
-	Day(String date, double minTemp, double maxTemp, double rh, double precip, double minWs, double maxWs, double wd) {
-		this.date = date;
-		this.min_temp = minTemp;
-		this.max_temp = maxTemp;
-		this.rh = rh;
-		this.precip = precip;
-		this.min_ws = minWs;
-		this.max_ws = maxWs;
-		this.wd = wd;
-	}
+	private final DailySeries series;
+	private final int index;
+	/**
+	 * DecimalFormat is not thread safe, each writing thread gets its own copy.
+	 */
+	private static final ThreadLocal<DecimalFormat> formatter = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("#.#");
+		}
+	};
 	
-	Day(String date, double minTemp, double maxTemp, double rh, double precip, double minWs, double maxWs, double minGust, double maxGust, double wd) {
-		this.date = date;
-		this.min_temp = minTemp;
-		this.max_temp = maxTemp;
-		this.rh = rh;
-		this.precip = precip;
-		this.min_ws = minWs;
-		this.max_ws = maxWs;
-		this.min_wg = minGust;
-		this.max_wg = maxGust;
-		this.wd = wd;
+	Day(DailySeries series, int index) {
+		this.series = series;
+		this.index = index;
 	}
 	
 	/**
@@ -75,7 +58,16 @@ public class Day {
 	 * @return the date
 	 */
 	public String getDate() {
-		return date;
+		return series.getDate(index);
+	}
+
+	/**
+	 * Get the date of this day.
+	 * 
+	 * @return the local date
+	 */
+	public LocalDate getLocalDate() {
+		return series.getLocalDate(index);
 	}
 	
 	/**
@@ -84,7 +76,7 @@ public class Day {
 	 * @return the minimum temperature
 	 */
 	public double getMinTemperature() {
-		return min_temp;
+		return series.getMinTemperature(index);
 	}
 	
 	/**
@@ -93,7 +85,7 @@ public class Day {
 	 * @return the maximum temperature
 	 */
 	public double getMaxTemperature() {
-		return max_temp;
+		return series.getMaxTemperature(index);
 	}
 	
 	/**
@@ -102,7 +94,7 @@ public class Day {
 	 * @return the minimum relative humidity
 	 */
 	public double getRelativeHumidity() {
-		return rh;
+		return series.getRelativeHumidity(index);
 	}
 	
 	/**
@@ -111,7 +103,7 @@ public class Day {
 	 * @return the precipitation for the day
 	 */
 	public double getPrecipitation() {
-		return precip;
+		return series.getPrecipitation(index);
 	}
 	
 	/**
@@ -120,7 +112,7 @@ public class Day {
 	 * @return the minimum wind speed
 	 */
 	public double getMinWindSpeed() {
-		return min_ws;
+		return series.getMinWindSpeed(index);
 	}
 	
 	/**
@@ -129,7 +121,7 @@ public class Day {
 	 * @return the maximum wind speed
 	 */
 	public double getMaxWindSpeed() {
-		return max_ws;
+		return series.getMaxWindSpeed(index);
 	}
 	
 	/**
@@ -138,7 +130,7 @@ public class Day {
 	 * @return the minimum wind gust
 	 */
 	public double getMinWindGust() {
-		return min_wg;
+		return series.getMinWindGust(index);
 	}
 	
 	/**
@@ -147,7 +139,7 @@ public class Day {
 	 * @return the maximum wind gust
 	 */
 	public double getMaxWindGust() {
-		return max_wg;
+		return series.getMaxWindGust(index);
 	}
 	
 	/**
@@ -156,7 +148,7 @@ public class Day {
 	 * @return the average wind direction
 	 */
 	public double getWindDirection() {
-		return wd;
+		return series.getWindDirection(index);
 	}
 	
 	/**
@@ -166,7 +158,8 @@ public class Day {
 	 * @throws IOException thrown if the file is unwritable
 	 */
 	public void writeToFile(BufferedWriter wrtr) throws IOException {
-		wrtr.write(date + "," + formatter.format(min_temp) + "," + formatter.format(max_temp) + "," + formatter.format(rh) + "," + formatter.format(precip) + "," + formatter.format(min_ws) + "," + formatter.format(max_ws) + "," + formatter.format(min_wg) + "," + formatter.format(max_wg) + "," + formatter.format(wd) + "\r\n");
+		DecimalFormat formatter = Day.formatter.get();
+		wrtr.write(getDate() + "," + formatter.format(getMinTemperature()) + "," + formatter.format(getMaxTemperature()) + "," + formatter.format(getRelativeHumidity()) + "," + formatter.format(getPrecipitation()) + "," + formatter.format(getMinWindSpeed()) + "," + formatter.format(getMaxWindSpeed()) + "," + formatter.format(getMinWindGust()) + "," + formatter.format(getMaxWindGust()) + "," + formatter.format(getWindDirection()) + "\r\n");
 	}
 	
 	/**
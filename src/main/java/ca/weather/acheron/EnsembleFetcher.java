@@ -0,0 +1,214 @@
+/***********************************************************************
+ * REDapp - EnsembleFetcher.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import ca.hss.general.WebDownloader;
+import ca.weather.acheron.ConditionalDownloader.HttpStatusException;
+import ca.weather.internal.DaemonThreadFactory;
+
+/**
+ * Downloads ensemble files in the background for every {@link Calculator} in the
+ * process. Any number of downloads can be requested at once but only a limited
+ * number of connections are opened to each host, the rest wait in a queue for
+ * that host until a connection is free.
+ * <p>
+ * Failed downloads are retried a limited number of times with a growing, jittered
+ * delay between attempts. While a download waits to be retried its connection is
+ * given to the next download in the queue. HTTP downloads resume from where the
+ * failed attempt stopped instead of starting over. Missing files (404) and other
+ * client errors are not retried.
+ */
+final class EnsembleFetcher {
+	static final int DEFAULT_CONNECTIONS_PER_HOST = 6;
+	static final int DEFAULT_MAX_ATTEMPTS = 4;
+	private static final long BASE_RETRY_DELAY = 500;
+	private static final long MAX_RETRY_DELAY = 8000;
+
+	private static final EnsembleFetcher instance = new EnsembleFetcher();
+
+	private ExecutorService pool = null;
+	private ScheduledExecutorService retryTimer = null;
+	private int connectionsPerHost = DEFAULT_CONNECTIONS_PER_HOST;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+
+	private EnsembleFetcher() { }
+
+	static EnsembleFetcher getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Set the maximum number of concurrent downloads from a single host. Downloads that
+	 * are already running are not affected.
+	 * @param connections The maximum number of connections, at least 1.
+	 */
+	synchronized void setConnectionsPerHost(int connections) {
+		connectionsPerHost = Math.max(1, connections);
+		for (HostQueue host : hosts.values())
+			startWaiting(host);
+	}
+
+	synchronized int getConnectionsPerHost() {
+		return connectionsPerHost;
+	}
+
+	/**
+	 * Set the number of times to try each download before giving up.
+	 * @param attempts The maximum number of attempts, at least 1.
+	 */
+	synchronized void setMaxAttempts(int attempts) {
+		maxAttempts = Math.max(1, attempts);
+	}
+
+	synchronized int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Start downloading a file.
+	 * @param url The file to download.
+	 * @return A future that completes with the downloaded file, or exceptionally
+	 *         with an {@link IOException} if it could not be downloaded.
+	 */
+	CompletableFuture<File> fetch(final URL url) {
+		final CompletableFuture<File> future = new CompletableFuture<File>();
+		final HostQueue host;
+		synchronized (this) {
+			String name = url.getHost() + ":" + url.getPort();
+			HostQueue h = hosts.get(name);
+			if (h == null) {
+				h = new HostQueue();
+				hosts.put(name, h);
+			}
+			host = h;
+		}
+		String protocol = url.getProtocol();
+		final ResumableDownload download = "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)
+				? new ResumableDownload(url) : null;
+		Runnable task = new Runnable() {
+			private int attempt = 0;
+
+			@Override
+			public void run() {
+				boolean retry = false;
+				try {
+					if (!future.isDone())
+						future.complete(download == null ? new File(WebDownloader.download(url)) : download.attempt());
+				}
+				catch (IOException e) {
+					attempt++;
+					retry = attempt < getMaxAttempts() && isRetryable(e);
+					if (!retry)
+						future.completeExceptionally(e);
+				}
+				catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+				finally {
+					if (!retry && download != null)
+						download.discard();
+					finished(host);
+				}
+				if (retry)
+					retryLater(host, this, retryDelay(attempt));
+			}
+		};
+		enqueue(host, task);
+		return future;
+	}
+
+	private synchronized void enqueue(HostQueue host, Runnable task) {
+		host.waiting.add(task);
+		startWaiting(host);
+	}
+
+	private synchronized void retryLater(final HostQueue host, final Runnable task, long delay) {
+		if (retryTimer == null)
+			retryTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("acheron-download-retry"));
+		retryTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				enqueue(host, task);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get how long to wait before an attempt. The delay doubles with each attempt
+	 * and a random part spreads out retries from downloads that failed together.
+	 * @param attempt The number of attempts that have failed.
+	 */
+	static long retryDelay(int attempt) {
+		long delay = Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << Math.min(attempt - 1, 16));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * Could trying a failed download again succeed.
+	 */
+	static boolean isRetryable(IOException e) {
+		if (e instanceof HttpStatusException) {
+			int code = ((HttpStatusException)e).getCode();
+			return code >= 500 || code == 408 || code == 429 || code == 416;
+		}
+		return !(e instanceof FileNotFoundException);
+	}
+
+	/**
+	 * Start as many waiting downloads for a host as its connection limit allows.
+	 */
+	private void startWaiting(HostQueue host) {
+		while (host.active < connectionsPerHost && !host.waiting.isEmpty()) {
+			host.active++;
+			getPool().execute(host.waiting.poll());
+		}
+	}
+
+	private synchronized void finished(HostQueue host) {
+		host.active--;
+		startWaiting(host);
+	}
+
+	private ExecutorService getPool() {
+		if (pool == null)
+			pool = Executors.newCachedThreadPool(new DaemonThreadFactory("acheron-download"));
+		return pool;
+	}
+
+	private static final class HostQueue {
+		private int active = 0;
+		private final ArrayDeque<Runnable> waiting = new ArrayDeque<Runnable>();
+	}
+}
@@ -0,0 +1,310 @@
+/***********************************************************************
+ * REDapp - EnsembleFileCache.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import ca.weather.forecast.Time;
+
+/**
+ * A size bounded cache of downloaded NAEFS files on the local disk.
+ * <p>
+ * Files are stored in a directory per model run (yyyyMMddHH) using the same
+ * name as on the Datamart, so each entry is identified by its run date, run
+ * time, variable and location. A published run file never changes so entries
+ * are served without checking the server until their run is older than the
+ * retention period. When the cache grows past its maximum size the least
+ * recently used files are removed. Files returned by {@link #get(String, String)}
+ * and {@link #put(String, String, File)} are not removed until they have been
+ * released with {@link #release(File)}, so they can't be deleted while they are
+ * being read.
+ */
+final class EnsembleFileCache {
+	static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+	static final int DEFAULT_RETENTION_HOURS = 48;
+
+	private static EnsembleFileCache instance = null;
+	private static String cacheDir = null;
+	private static long maxBytes = DEFAULT_MAX_BYTES;
+	private static int retentionHours = DEFAULT_RETENTION_HOURS;
+
+	private final Path root;
+	private final long capacity;
+	private final long retentionMillis;
+	private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<Path, Long>(64, 0.75f, true);
+	//the number of readers of each file that has been returned but not released
+	private final Map<Path, Integer> readers = new HashMap<Path, Integer>();
+	private long totalBytes = 0;
+	private boolean loaded = false;
+
+	private EnsembleFileCache(Path root, long capacity, int retentionHours) {
+		this.root = root;
+		this.capacity = capacity;
+		this.retentionMillis = retentionHours * 3600000L;
+	}
+
+	/**
+	 * Get the shared cache.
+	 * @return The cache, or null if caching has not been enabled.
+	 */
+	static synchronized EnsembleFileCache getInstance() {
+		if (instance == null && cacheDir != null && cacheDir.length() > 0)
+			instance = new EnsembleFileCache(Paths.get(cacheDir), maxBytes, retentionHours);
+		return instance;
+	}
+
+	/**
+	 * Configure the shared cache. Takes effect the next time the cache is used.
+	 * @param dir The directory to store cached files in, or null to disable caching.
+	 * @param bytes The maximum total size of the cached files.
+	 * @param hours How long after a model run its files are kept.
+	 */
+	static synchronized void configure(String dir, long bytes, int hours) {
+		cacheDir = dir;
+		maxBytes = Math.max(0, bytes);
+		retentionHours = Math.max(0, hours);
+		instance = null;
+	}
+
+	static synchronized String getCacheDir() {
+		return cacheDir;
+	}
+
+	static synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	static synchronized int getRetentionHours() {
+		return retentionHours;
+	}
+
+	/**
+	 * Find a cached file.
+	 * @param run The model run, formatted as yyyyMMddHH.
+	 * @param filename The name of the file on the Datamart.
+	 * @return The cached file, or null if it isn't cached or its run has expired. The file must
+	 * be released once it has been read.
+	 */
+	synchronized File get(String run, String filename) {
+		load();
+		Path path = root.resolve(run).resolve(filename);
+		//a get on an access ordered map also moves the entry to the most recently used position
+		if (entries.get(path) == null)
+			return null;
+		if (isExpired(run) || !Files.exists(path)) {
+			if (!readers.containsKey(path))
+				remove(path);
+			return null;
+		}
+		File fl = path.toFile();
+		//record the access on disk so the LRU order survives a restart
+		fl.setLastModified(System.currentTimeMillis());
+		acquire(path);
+		return fl;
+	}
+
+	/**
+	 * Move a downloaded file into the cache.
+	 * @param run The model run, formatted as yyyyMMddHH.
+	 * @param filename The name of the file on the Datamart.
+	 * @param downloaded The downloaded file. It will be moved into the cache.
+	 * @return The file in its cached location. The file must be released once it has been read.
+	 * @throws IOException If the file could not be moved into the cache, downloaded is left where it was.
+	 */
+	synchronized File put(String run, String filename, File downloaded) throws IOException {
+		load();
+		Path dir = root.resolve(run);
+		Files.createDirectories(dir);
+		Path path = dir.resolve(filename);
+		long size = Files.size(downloaded.toPath());
+		try {
+			Files.move(downloaded.toPath(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(downloaded.toPath(), path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Long old = entries.put(path, Long.valueOf(size));
+		if (old != null)
+			totalBytes -= old.longValue();
+		totalBytes += size;
+		acquire(path);
+		evict();
+		return path.toFile();
+	}
+
+	/**
+	 * Release a file returned by {@link #get(String, String)} or {@link #put(String, String, File)}
+	 * so that it can be evicted again.
+	 */
+	synchronized void release(File file) {
+		Path path = file.toPath();
+		Integer count = readers.get(path);
+		if (count == null)
+			return;
+		if (count.intValue() <= 1)
+			readers.remove(path);
+		else
+			readers.put(path, Integer.valueOf(count.intValue() - 1));
+	}
+
+	private void acquire(Path path) {
+		Integer count = readers.get(path);
+		readers.put(path, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+	}
+
+	/**
+	 * Remove expired runs and, if the cache is over its maximum size, the least
+	 * recently used files. Files that are being read are skipped.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Path, Long>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Long> entry = it.next();
+			Path path = entry.getKey();
+			if (readers.containsKey(path))
+				continue;
+			if (totalBytes > capacity || isExpired(path.getParent().getFileName().toString())) {
+				//a file that can't be deleted stays indexed so it is retried on the next eviction
+				if (delete(path)) {
+					it.remove();
+					totalBytes -= entry.getValue().longValue();
+				}
+			}
+		}
+	}
+
+	private void remove(Path path) {
+		if (!delete(path))
+			return;
+		Long size = entries.remove(path);
+		if (size != null)
+			totalBytes -= size.longValue();
+	}
+
+	/**
+	 * Delete a cached file and its run directory if it is now empty.
+	 * @return False if the file could not be deleted.
+	 */
+	private static boolean delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		}
+		catch (IOException e) {
+			//the file may be locked by another process
+			return false;
+		}
+		Path parent = path.getParent();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(parent)) {
+			if (!stream.iterator().hasNext())
+				Files.delete(parent);
+		}
+		catch (IOException e) {
+			//another file was added to the run or the directory is already gone
+		}
+		return true;
+	}
+
+	private boolean isExpired(String run) {
+		Date runDate = parseRun(run);
+		if (runDate == null)
+			return true;
+		return System.currentTimeMillis() - runDate.getTime() > retentionMillis;
+	}
+
+	/**
+	 * Index any files left in the cache directory by a previous process, oldest
+	 * access first.
+	 */
+	private void load() {
+		if (loaded)
+			return;
+		loaded = true;
+		if (!Files.isDirectory(root))
+			return;
+		List<File> files = new ArrayList<File>();
+		File[] runs = root.toFile().listFiles();
+		if (runs == null)
+			return;
+		for (File run : runs) {
+			if (!run.isDirectory() || parseRun(run.getName()) == null)
+				continue;
+			File[] children = run.listFiles();
+			if (children == null)
+				continue;
+			for (File child : children) {
+				if (child.isFile())
+					files.add(child);
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File fl : files) {
+			entries.put(fl.toPath(), Long.valueOf(fl.length()));
+			totalBytes += fl.length();
+		}
+		evict();
+	}
+
+	/**
+	 * Get the name of a model run as used by the cache.
+	 * @param date The day of the model run in yyyyMMdd format.
+	 * @param time The time of the model run.
+	 */
+	static String runName(String date, Time time) {
+		return date + time.toString();
+	}
+
+	private static Date parseRun(String run) {
+		if (run.length() != 10)
+			return null;
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHH");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		try {
+			return format.parse(run);
+		}
+		catch (ParseException e) {
+			return null;
+		}
+	}
+}
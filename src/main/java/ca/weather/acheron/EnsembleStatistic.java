@@ -0,0 +1,79 @@
+/***********************************************************************
+ * REDapp - EnsembleStatistic.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+/**
+ * A statistic of the requested ensemble members that can be calculated
+ * alongside the percentiles. Each statistic is calculated separately for
+ * every variable from the members own values, it is never aggregated from
+ * another statistic. The statistics are accumulated while the ensemble files
+ * are read.
+ * <p>
+ * At a forecast hour the value is the statistic of the members temperature,
+ * relative humidity, wind speed and precipitation since the previous forecast.
+ * The hours between forecasts use the members values linearly interpolated
+ * between the forecasts and have no precipitation. A daily value is the
+ * statistic of the members daily minimum and maximum temperature, minimum
+ * relative humidity, total precipitation and minimum and maximum wind speed
+ * from their forecast hours, so the daily maximum temperature of
+ * {@link #STANDARD_DEVIATION} is the spread of the members daily maximums.
+ * The wind direction is always the predominant direction of the members.
+ */
+public enum EnsembleStatistic {
+	/**
+	 * The mean of the members values.
+	 */
+	MEAN("MEAN"),
+	/**
+	 * The population standard deviation of the members values.
+	 */
+	STANDARD_DEVIATION("SD"),
+	/**
+	 * The smallest of the members values.
+	 */
+	MINIMUM("MIN"),
+	/**
+	 * The largest of the members values.
+	 */
+	MAXIMUM("MAX"),
+	/**
+	 * The lower bound of the confidence interval of the mean.
+	 */
+	LOWER_CONFIDENCE("CI_LOWER"),
+	/**
+	 * The upper bound of the confidence interval of the mean.
+	 */
+	UPPER_CONFIDENCE("CI_UPPER");
+	
+	private String name;
+	
+	private EnsembleStatistic(String nm) {
+		name = nm;
+	}
+	
+	/**
+	 * The name used for the statistic in output file names.
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -24,59 +24,58 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Calendar;
 import java.util.List;
 
 /**
- * Stores information about an hours weather information.
+ * Stores information about an hours weather information. An hour is a view onto
+ * one row of a column oriented hourly series.
  * 
  * @author Travis Redpath
  *
  */
 public class Hour {
-	private Calendar date;
-	private double temp;
-	private double rh;
-	private double precip;
-	private double ws;
-	private double wg; // gust
-	private double wd;
-	private boolean interpolated;
-	private boolean error = false;
-	private static final DecimalFormat formatter = new DecimalFormat("#.#");
+	private final HourlySeries series;
+	private final int index;
+	private static final DateTimeFormatter TO_STRING_FORMAT = DateTimeFormatter.ofPattern("HH:mm MM/dd/yyyy");
+	/**
+	 * DecimalFormat is not thread safe, each writing thread gets its own copy.
+	 */
+	private static final ThreadLocal<DecimalFormat> formatter = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			return new DecimalFormat("#.#");
+		}
+	};
+	/**
+	 * @deprecated Hours no longer use this formatter, dates are formatted with
+	 *             an immutable {@link DateTimeFormatter}. SimpleDateFormat is not
+	 *             thread safe so any external use must synchronize on it.
+	 */
+	@Deprecated
 	public static final SimpleDateFormat dateFormatter = new SimpleDateFormat("dd/MM/yyyy");
 
-	Hour(String date, int hour, double temp, double rh, double precip, double ws, double wg, double wd) {
-		this.date = Calendar.getInstance();
-		synchronized (dateFormatter) {
-			try {
-				this.date.setTime(dateFormatter.parse(date));
-			} catch (ParseException e) {
-			}
-		}
-		this.date.set(Calendar.HOUR_OF_DAY, hour);
-		this.date.set(Calendar.MINUTE, 0);
-		this.temp = temp;
-		this.rh = rh;
-		this.precip = precip;
-		this.ws = ws;
-		this.wg = wg;
-		this.wd = wd;
-		this.interpolated = false;
+	Hour(HourlySeries series, int index) {
+		this.series = series;
+		this.index = index;
+	}
+
+	/**
+	 * Create a standalone hour.
+	 * 
+	 * @param time the local time in hours since the epoch
+	 */
+	Hour(int time, double temp, double rh, double precip, double ws, double wg, double wd) {
+		this.series = new HourlySeries(1);
+		this.index = series.add(time, temp, rh, precip, ws, wg, wd);
 	}
 
 	Hour(Calendar date, double temp, double rh, double precip, double ws, double wg, double wd) {
-		this.date = date;
-		this.date.set(Calendar.MINUTE, 0);
-		this.temp = temp;
-		this.rh = rh;
-		this.precip = precip;
-		this.ws = ws;
-		this.wg = wg;
-		this.wd = wd;
-		this.interpolated = false;
+		this.series = new HourlySeries(1);
+		this.index = series.add(HourlySeries.toTime(date), temp, rh, precip, ws, wg, wd);
 	}
 	
 	/**
@@ -84,7 +83,7 @@ public class Hour {
 	 * @return
 	 */
 	public boolean isInterpolated() {
-		return interpolated;
+		return series.isInterpolated(index);
 	}
 	
 	/**
@@ -92,19 +91,19 @@ public class Hour {
 	 * @param interpolated
 	 */
 	public void setInterpolated(boolean interpolated) {
-		this.interpolated = interpolated;
+		series.setInterpolated(index, interpolated);
 	}
 	
 	/**
 	 * Was an error found in the imported weather.
 	 */
-	public boolean isError() { return error; }
+	public boolean isError() { return series.isError(index); }
 	
 	/**
 	 * Set if there was an error in the imported weather.
 	 * @param error True if there was an error.
 	 */
-	public void setError(boolean error) { this.error = error; }
+	public void setError(boolean error) { series.setError(index, error); }
 
 	/**
 	 * Get this hours date and time as a string.
@@ -112,18 +111,28 @@ public class Hour {
 	 * @return the date and time
 	 */
 	public String getDate() {
-		synchronized (dateFormatter) {
-			return dateFormatter.format(date.getTime());
-		}
+		return series.getDate(index);
 	}
 
 	/**
-	 * Get this hours date and time as a Calendar.
+	 * Get this hours local date and time.
 	 * 
 	 * @return the date and time
 	 */
+	public LocalDateTime getDateTime() {
+		return series.getDateTime(index);
+	}
+
+	/**
+	 * Get this hours date and time as a Calendar. A new calendar is built
+	 * on each call, so it is a copy: changing it does not change the date
+	 * or hour of this hour, and the change is not seen by later calls. Use
+	 * {@link #getDateTime()} to read the time without building a calendar.
+	 * 
+	 * @return a copy of the date and time
+	 */
 	public Calendar getCalendarDate() {
-		return date;
+		return series.getCalendar(index);
 	}
 
 	/**
@@ -132,7 +141,7 @@ public class Hour {
 	 * @return the hour
 	 */
 	public int getHour() {
-		return date.get(Calendar.HOUR_OF_DAY);
+		return series.getHourOfDay(index);
 	}
 
 	/**
@@ -141,7 +150,7 @@ public class Hour {
 	 * @return the temperature
 	 */
 	public double getTemperature() {
-		return temp;
+		return series.getTemperature(index);
 	}
 
 	/**
@@ -150,7 +159,7 @@ public class Hour {
 	 * @return the relative humidity
 	 */
 	public double getRelativeHumidity() {
-		return rh;
+		return series.getRelativeHumidity(index);
 	}
 
 	/**
@@ -159,7 +168,7 @@ public class Hour {
 	 * @return the precipitation
 	 */
 	public double getPrecipitation() {
-		return precip;
+		return series.getPrecipitation(index);
 	}
 
 	/**
@@ -168,7 +177,7 @@ public class Hour {
 	 * @param precip the new precipitation value
 	 */
 	void setPrecipitation(double precip) {
-		this.precip = precip;
+		series.setPrecipitation(index, precip);
 	}
 
 	/**
@@ -177,7 +186,7 @@ public class Hour {
 	 * @return the wind speed
 	 */
 	public double getWindSpeed() {
-		return ws;
+		return series.getWindSpeed(index);
 	}
 
 	/**
@@ -186,7 +195,7 @@ public class Hour {
 	 * @return the wind gust
 	 */
 	public double getWindGust() {
-		return wg;
+		return series.getWindGust(index);
 	}
 
 	/**
@@ -195,7 +204,7 @@ public class Hour {
 	 * @return the wind direction
 	 */
 	public double getWindDirection() {
-		return wd;
+		return series.getWindDirection(index);
 	}
 
 	/**
@@ -205,7 +214,7 @@ public class Hour {
 	 * @throws IOException thrown if the file is not writable
 	 */
 	private void writeToFile(BufferedWriter wrtr) throws IOException {
-		wrtr.write(getDate() + "," + getHour() + "," + formatter.format(temp) + "," + formatter.format(rh) + "," + formatter.format(precip) + "," + formatter.format(ws) + "," + formatter.format(wg) + "," + formatter.format(wd) + "\r\n");
+		writeToFile(wrtr, getHour());
 	}
 
 	/**
@@ -216,7 +225,8 @@ public class Hour {
 	 * @throws IOException thrown if the file is not writable
 	 */
 	private void writeToFile(BufferedWriter wrtr, int houroverride) throws IOException {
-		wrtr.write(getDate() + "," + houroverride + "," + formatter.format(temp) + "," + formatter.format(rh) + "," + formatter.format(precip) + "," + formatter.format(ws) + "," + formatter.format(wg) + "," + formatter.format(wd) + "\r\n");
+		DecimalFormat formatter = Hour.formatter.get();
+		wrtr.write(getDate() + "," + houroverride + "," + formatter.format(getTemperature()) + "," + formatter.format(getRelativeHumidity()) + "," + formatter.format(getPrecipitation()) + "," + formatter.format(getWindSpeed()) + "," + formatter.format(getWindGust()) + "," + formatter.format(getWindDirection()) + "\r\n");
 	}
 
 	private static void writeHeader(BufferedWriter wrtr) throws IOException {
@@ -252,17 +262,20 @@ public class Hour {
 		}
 		Hour last = list.get(list.size() - 1);
 		int lasthour = last.getHour();
-		while (lasthour < 23) {
-			lasthour++;
-			Hour newlast = new Hour(last.getDate(), lasthour, last.getTemperature(), last.getRelativeHumidity(), 0, last.getWindSpeed(), last.getWindGust(), last.getWindDirection());
-			newlast.writeToFile(bw);
+		//fill in missing hours at the end of the last day
+		//by copying the last hour's data without precipitation
+		if (lasthour < 23) {
+			Hour newlast = new Hour(last.series.getTime(last.index), last.getTemperature(), last.getRelativeHumidity(), 0, last.getWindSpeed(), last.getWindGust(), last.getWindDirection());
+			while (lasthour < 23) {
+				lasthour++;
+				newlast.writeToFile(bw, lasthour);
+			}
 		}
 		bw.close();
 	}
 
 	@Override
 	public String toString() {
-		SimpleDateFormat format = new SimpleDateFormat("HH:mm MM/dd/yyyy");
-		return format.format(date.getTime());
+		return TO_STRING_FORMAT.format(getDateTime());
 	}
 }
@@ -0,0 +1,224 @@
+/***********************************************************************
+ * REDapp - HourlySeries.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * A column oriented series of hourly weather values. Times are stored as local
+ * wall clock hours since 1970-01-01 00:00 and each variable is stored in its own
+ * array, {@link Hour} objects are only views onto a row of the series.
+ */
+final class HourlySeries {
+	private int size = 0;
+	private int[] times;
+	private double[] temp;
+	private double[] rh;
+	private double[] precip;
+	private double[] ws;
+	private double[] wg;
+	private double[] wd;
+	private final BitSet interpolated = new BitSet();
+	private final BitSet error = new BitSet();
+
+	HourlySeries(int capacity) {
+		capacity = Math.max(capacity, 1);
+		times = new int[capacity];
+		temp = new double[capacity];
+		rh = new double[capacity];
+		precip = new double[capacity];
+		ws = new double[capacity];
+		wg = new double[capacity];
+		wd = new double[capacity];
+	}
+
+	/**
+	 * Get the number of hours in the series.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add an hour to the end of the series.
+	 * @param time The local time in hours since the epoch, see {@link #toTime(int, int, int, int)}.
+	 * @return The index of the new hour.
+	 */
+	int add(int time, double temp, double rh, double precip, double ws, double wg, double wd) {
+		if (size == times.length)
+			grow();
+		this.times[size] = time;
+		this.temp[size] = temp;
+		this.rh[size] = rh;
+		this.precip[size] = precip;
+		this.ws[size] = ws;
+		this.wg[size] = wg;
+		this.wd[size] = wd;
+		return size++;
+	}
+
+	private void grow() {
+		int capacity = times.length * 2;
+		times = Arrays.copyOf(times, capacity);
+		temp = Arrays.copyOf(temp, capacity);
+		rh = Arrays.copyOf(rh, capacity);
+		precip = Arrays.copyOf(precip, capacity);
+		ws = Arrays.copyOf(ws, capacity);
+		wg = Arrays.copyOf(wg, capacity);
+		wd = Arrays.copyOf(wd, capacity);
+	}
+
+	/**
+	 * Get the local time of an hour in hours since the epoch.
+	 */
+	int getTime(int i) {
+		return times[i];
+	}
+
+	/**
+	 * Get the local date of an hour in days since the epoch.
+	 */
+	int getDay(int i) {
+		return Math.floorDiv(times[i], 24);
+	}
+
+	int getHourOfDay(int i) {
+		return Math.floorMod(times[i], 24);
+	}
+
+	double getTemperature(int i) {
+		return temp[i];
+	}
+
+	double getRelativeHumidity(int i) {
+		return rh[i];
+	}
+
+	double getPrecipitation(int i) {
+		return precip[i];
+	}
+
+	void setPrecipitation(int i, double value) {
+		precip[i] = value;
+	}
+
+	double getWindSpeed(int i) {
+		return ws[i];
+	}
+
+	double getWindGust(int i) {
+		return wg[i];
+	}
+
+	double getWindDirection(int i) {
+		return wd[i];
+	}
+
+	boolean isInterpolated(int i) {
+		return interpolated.get(i);
+	}
+
+	void setInterpolated(int i, boolean value) {
+		interpolated.set(i, value);
+	}
+
+	boolean isError(int i) {
+		return error.get(i);
+	}
+
+	void setError(int i, boolean value) {
+		error.set(i, value);
+	}
+
+	/**
+	 * Get the local date of an hour formatted as dd/MM/yyyy.
+	 */
+	String getDate(int i) {
+		return DailySeries.DATE_FORMAT.format(LocalDate.ofEpochDay(getDay(i)));
+	}
+
+	/**
+	 * Get the local date and time of an hour.
+	 */
+	LocalDateTime getDateTime(int i) {
+		return LocalDate.ofEpochDay(getDay(i)).atTime(getHourOfDay(i), 0);
+	}
+
+	/**
+	 * Build a calendar for the local time of an hour.
+	 */
+	Calendar getCalendar(int i) {
+		LocalDate date = LocalDate.ofEpochDay(getDay(i));
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(date.getYear(), date.getMonthValue() - 1, date.getDayOfMonth(), getHourOfDay(i), 0, 0);
+		return c;
+	}
+
+	/**
+	 * Get a view of an hour in the series.
+	 */
+	Hour get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException();
+		return new Hour(this, i);
+	}
+
+	/**
+	 * Get an unmodifiable list view of the series.
+	 */
+	List<Hour> asList() {
+		return new AbstractList<Hour>() {
+			@Override
+			public Hour get(int index) {
+				return HourlySeries.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Convert a local date and time to hours since the epoch.
+	 * @param year The year.
+	 * @param month The month, 1 to 12.
+	 * @param day The day of the month.
+	 * @param hour The hour of the day, values outside of 0 to 23 roll into the adjacent days.
+	 */
+	static int toTime(int year, int month, int day, int hour) {
+		return (int)(LocalDate.of(year, month, day).toEpochDay() * 24 + hour);
+	}
+
+	/**
+	 * Convert the local date and hour stored in a calendar to hours since the epoch.
+	 */
+	static int toTime(Calendar c) {
+		return toTime(c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH), c.get(Calendar.HOUR_OF_DAY));
+	}
+}
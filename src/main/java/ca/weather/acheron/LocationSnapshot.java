@@ -0,0 +1,166 @@
+/***********************************************************************
+ * REDapp - LocationSnapshot.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.weather.acheron.Calculator.LocationSmall;
+
+/**
+ * A binary copy of the parsed NAEFS location list so that it can be loaded
+ * without parsing locations.xml.
+ * <p>
+ * The snapshot records the size and modification time of the XML file it was
+ * made from and is ignored if the XML file has changed since. All values are
+ * big endian:
+ * <pre>
+ * magic      8 bytes  "NAEFSLOC"
+ * version    int
+ * xml time   long     last modified time of locations.xml in milliseconds
+ * xml size   long
+ * count      int
+ * count times:
+ *   latitude, longitude, elevation   double
+ *   name, country                    unsigned short length then UTF-8 bytes
+ * </pre>
+ */
+final class LocationSnapshot {
+	static final String FILE_NAME = "locations.bin";
+	private static final byte[] MAGIC = "NAEFSLOC".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+
+	private LocationSnapshot() { }
+
+	/**
+	 * Read a snapshot.
+	 * @param snapshot The snapshot file.
+	 * @param xml The XML file the snapshot should have been made from. If it doesn't
+	 *            exist the snapshot is used as is.
+	 * @return The locations, or null if the snapshot is missing, damaged or out of date.
+	 */
+	static List<LocationSmall> read(Path snapshot, Path xml) {
+		if (!Files.isRegularFile(snapshot))
+			return null;
+		try {
+			//read onto the heap, a mapping stays open until it is collected and stops write replacing the file on Windows
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i])
+					return null;
+			}
+			if (buffer.getInt() != VERSION)
+				return null;
+			long modified = buffer.getLong();
+			long size = buffer.getLong();
+			if (Files.exists(xml) && (Files.getLastModifiedTime(xml).toMillis() != modified || Files.size(xml) != size))
+				return null;
+			int count = buffer.getInt();
+			//each location takes at least three doubles and two string lengths
+			if (count < 0 || count > buffer.remaining() / 28)
+				return null;
+			List<LocationSmall> list = new ArrayList<LocationSmall>(count);
+			for (int i = 0; i < count; i++) {
+				LocationSmall location = new LocationSmall();
+				location.latitude = buffer.getDouble();
+				location.longitude = buffer.getDouble();
+				location.elevation = buffer.getDouble();
+				location.locationName = readString(buffer);
+				location.country = readString(buffer);
+				list.add(location);
+			}
+			return list;
+		}
+		catch (IOException|BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write a snapshot, replacing any existing one.
+	 * @param snapshot The snapshot file.
+	 * @param xml The XML file the locations were read from.
+	 * @param locations The locations.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	static void write(Path snapshot, Path xml, List<LocationSmall> locations) throws IOException {
+		Path dir = snapshot.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, FILE_NAME, ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(Files.getLastModifiedTime(xml).toMillis());
+				out.writeLong(Files.size(xml));
+				out.writeInt(locations.size());
+				for (LocationSmall location : locations) {
+					out.writeDouble(location.latitude);
+					out.writeDouble(location.longitude);
+					out.writeDouble(location.elevation);
+					writeString(out, location.locationName);
+					writeString(out, location.country);
+				}
+			}
+			try {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		if (length == 0xFFFF)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(0xFFFF);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length >= 0xFFFF)
+			throw new IOException("Location text is too long");
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
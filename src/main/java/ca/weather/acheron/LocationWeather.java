@@ -25,22 +25,35 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-
-import ca.hss.general.WebDownloader;
 import ca.hss.times.TimeZoneInfo;
+import ca.weather.acheron.ProductSpec.MemberOutput;
 import ca.weather.forecast.Model;
 import ca.weather.forecast.Time;
 import ca.weather.internal.Forecast;
+import ca.weather.internal.DailyWindDirections;
+import ca.weather.internal.HourlySpline;
+import ca.weather.internal.Percentiles;
+import ca.weather.internal.RunningStatistics;
+import ca.weather.internal.WindDirections;
 import ca.weather.internal.XMLFile;
-import ca.weather.internal.Forecast.ModelDoesNotExistException;
 
 /**
  * Weather information for a specific location.
@@ -49,23 +62,54 @@ import ca.weather.internal.Forecast.ModelDoesNotExistException;
  *
  */
 public class LocationWeather {
+	/**
+	 * The number of 6 hour forecasts in a full NAEFS file, hours 0 to 384.
+	 */
+	static final int FORECAST_COUNT = 65;
+	/**
+	 * The number of members in the GEM and NCEP ensembles combined.
+	 */
+	static final int MEMBER_COUNT = 43;
+
 	private String location;
-	private List<Day> day_data = null;
-	private List<Hour> hour_data = null;
-	private List<List<Hour>> memberHourData = null;
-	private List<List<Day>> memberDayData = null;
+	private DailySeries day_data = null;
+	private HourlySeries hour_data = null;
+	private List<DailySeries> percentile_day_data = null;
+	private List<HourlySeries> percentile_hour_data = null;
+	//the member series are only built from the parsed files when they are first needed
+	private HourlySeries[] memberHourData = new HourlySeries[MEMBER_COUNT];
+	private DailySeries[] memberDayData = new DailySeries[MEMBER_COUNT];
+	private boolean[] keepMember = new boolean[MEMBER_COUNT];
+	//the index in the ensemble files and the local time of each forecast that was read
+	private int[] forecastIndices = new int[0];
+	private int[] forecastTimes = new int[0];
+	private int forecastsRead = 0;
 	private List<Integer> members = null;
-	private List<Double> daily_wdirs = new ArrayList<Double>();
+	private DailyWindDirections daily_wdirs = new DailyWindDirections(0);
 	private Model model = Model.CUSTOM;
 	private Calendar date;
 	private Time time = Time.MIDNIGHT;
-	private int percentile = 50;
+	private int[] percentiles = new int[] { 50 };
+	private int forecastHorizon = Integer.MAX_VALUE;
+	private Set<XMLFileType> variables = EnumSet.allOf(XMLFileType.class);
+	private MemberOutput memberOutput = MemberOutput.ALL;
+	private Set<EnsembleStatistic> statistics = EnumSet.noneOf(EnsembleStatistic.class);
+	private double confidenceZ = 1.96;
+	private boolean parallelMembers = false;
+	private Map<EnsembleStatistic, HourlySeries> statistic_hour_data = null;
+	private Map<EnsembleStatistic, DailySeries> statistic_day_data = null;
+	private boolean dataError = false;
+	private Exception calculationError = null;
 
 	private XMLFile temp_file;
 	private XMLFile rh_file;
 	private XMLFile apcp_file;
 	private XMLFile wind_file;
 	private XMLFile wdir_file;
+	//the parsed files of the last calculation and their cache keys, reused if the next
+	//calculation is for the same run so only the post processing is repeated
+	private final Map<XMLFileType, String> parsedKeys = new EnumMap<XMLFileType, String>(XMLFileType.class);
+	private final Map<XMLFileType, XMLFile> parsedFiles = new EnumMap<XMLFileType, XMLFile>(XMLFileType.class);
 
 	/**
 	 *
@@ -75,16 +119,92 @@ public class LocationWeather {
 	 */
 	LocationWeather(String location) {
 		this.location = location.replace(' ', '_');
-		memberHourData = new ArrayList<List<Hour>>(43);
-		memberDayData = new ArrayList<List<Day>>(43);
-		for (int i = 0; i < 43; i++) {
-			memberHourData.add(new ArrayList<Hour>());
-			memberDayData.add(new ArrayList<Day>());
-		}
+	}
+
+	/**
+	 * Set the last forecast hour to read from the ensemble files.
+	 */
+	void setForecastHorizon(int hours) {
+		forecastHorizon = hours;
+	}
+
+	/**
+	 * Set which variables to load and which member series to keep.
+	 */
+	void setProductOutputs(Set<XMLFileType> variables, MemberOutput memberOutput) {
+		this.variables = EnumSet.copyOf(variables);
+		this.memberOutput = memberOutput;
+	}
+
+	/**
+	 * Set whether the members daily values are calculated in parallel.
+	 */
+	void setParallelMembers(boolean parallel) {
+		parallelMembers = parallel;
+	}
+
+	/**
+	 * Set which ensemble statistics to calculate.
+	 * @param statistics The statistics.
+	 * @param confidenceZ The number of standard errors either side of the mean covered by the confidence interval.
+	 */
+	void setStatisticOutputs(Set<EnsembleStatistic> statistics, double confidenceZ) {
+		this.statistics = statistics.isEmpty() ? EnumSet.noneOf(EnsembleStatistic.class) : EnumSet.copyOf(statistics);
+		this.confidenceZ = confidenceZ;
+	}
+
+	/**
+	 * Get the number of 6 hour forecasts that will be read from each file.
+	 */
+	private int forecastCount() {
+		return Math.min(FORECAST_COUNT, forecastHorizon / 6 + 1);
 	}
 
 	void setPercentile(int value) {
-		percentile = value;
+		percentiles = new int[] { value };
+	}
+
+	/**
+	 * Set the percentiles to calculate. The first percentile is the one returned by
+	 * {@link #getHourData()} and {@link #getDayData()}.
+	 */
+	void setPercentiles(int... values) {
+		if (values == null || values.length == 0)
+			throw new IllegalArgumentException("At least one percentile is required");
+		percentiles = values.clone();
+	}
+
+	/**
+	 * Get the percentiles that were calculated, in the order they were requested.
+	 *
+	 * @return The percentile values.
+	 */
+	public int[] getPercentiles() {
+		return percentiles.clone();
+	}
+
+	/**
+	 * Get the order that the percentiles would be in if sorted lowest to highest.
+	 */
+	private static int[] ascendingOrder(int[] values) {
+		int[] order = new int[values.length];
+		for (int i = 0; i < order.length; i++) {
+			int j = i - 1;
+			while (j >= 0 && values[order[j]] > values[i]) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = i;
+		}
+		return order;
+	}
+
+	private int percentileIndex(int percentile) {
+		for (int i = 0; i < percentiles.length; i++) {
+			if (percentiles[i] == percentile)
+				return i;
+		}
+		return -1;
 	}
 
     /**
@@ -99,21 +219,74 @@ public class LocationWeather {
     }
 
 	/**
-	 * Get the calculated 50th percentile daily weather values.
+	 * Get the calculated daily weather values for the first requested percentile.
 	 *
 	 * @return An unmodifiable list of daily weather data.
 	 */
 	public List<Day> getDayData() {
-		return Collections.unmodifiableList(day_data);
+		return day_data.asList();
+	}
+
+	/**
+	 * Get the calculated daily weather values for a percentile.
+	 *
+	 * @param percentile One of the percentiles that was calculated.
+	 * @return An unmodifiable list of daily weather data, or null if the percentile was not calculated.
+	 */
+	public List<Day> getDayData(int percentile) {
+		int index = percentileIndex(percentile);
+		if (index < 0 || percentile_day_data == null)
+			return null;
+		return percentile_day_data.get(index).asList();
 	}
 
 	/**
-	 * Get the calculated 50th percentile hourly weather values.
+	 * Get the calculated hourly weather values for the first requested percentile.
 	 *
 	 * @return An unmodifiable list of hourly weather data.
 	 */
 	public List<Hour> getHourData() {
-		return Collections.unmodifiableList(hour_data);
+		return hour_data.asList();
+	}
+
+	/**
+	 * Get the calculated hourly weather values for a percentile.
+	 *
+	 * @param percentile One of the percentiles that was calculated.
+	 * @return An unmodifiable list of hourly weather data, or null if the percentile was not calculated.
+	 */
+	public List<Hour> getHourData(int percentile) {
+		int index = percentileIndex(percentile);
+		if (index < 0 || percentile_hour_data == null)
+			return null;
+		return percentile_hour_data.get(index).asList();
+	}
+
+	/**
+	 * Get the calculated daily values of an ensemble statistic. Each value is the
+	 * statistic of the members own daily values, see {@link EnsembleStatistic}.
+	 *
+	 * @param statistic One of the statistics that was requested in the {@link ProductSpec}.
+	 * @return An unmodifiable list of daily weather data, or null if the statistic was not calculated.
+	 */
+	public List<Day> getDayData(EnsembleStatistic statistic) {
+		if (statistic_day_data == null || !statistic_day_data.containsKey(statistic))
+			return null;
+		return statistic_day_data.get(statistic).asList();
+	}
+
+	/**
+	 * Get the calculated hourly values of an ensemble statistic. Each variable holds
+	 * the statistic of that variable across the requested members, see {@link EnsembleStatistic}.
+	 * The wind direction is the predominant direction of the members.
+	 *
+	 * @param statistic One of the statistics that was requested in the {@link ProductSpec}.
+	 * @return An unmodifiable list of hourly weather data, or null if the statistic was not calculated.
+	 */
+	public List<Hour> getHourData(EnsembleStatistic statistic) {
+		if (statistic_hour_data == null || !statistic_hour_data.containsKey(statistic))
+			return null;
+		return statistic_hour_data.get(statistic).asList();
 	}
 
 	/**
@@ -138,6 +311,28 @@ public class LocationWeather {
 		return Collections.unmodifiableList(members);
 	}
 
+	/**
+	 * Were invalid weather values found during the last calculation.
+	 *
+	 * @return True if at least one hour contained invalid imported weather.
+	 */
+	public boolean isDataError() {
+		return dataError;
+	}
+
+	/**
+	 * Get the exception that stopped the last calculation for this location.
+	 *
+	 * @return The exception, or null if the last calculation completed.
+	 */
+	public Exception getCalculationError() {
+		return calculationError;
+	}
+
+	void setCalculationError(Exception e) {
+		calculationError = e;
+	}
+
 	/**
 	 * Get the location (with underscores instead of spaces).
 	 *
@@ -154,121 +349,6 @@ public class LocationWeather {
 		return location.replace('_', ' ');
 	}
 
-	private double getPercentileValueFromList(List<Double> value_list,
-			double index) {
-		if (value_list.size() < 1)
-			return -1;
-		int index_high = (int) Math.ceil(index);
-		int index_low = (int) Math.floor(index);
-		double i = index - index_low;
-		return ((1 - i) * value_list.get(index_low).doubleValue())
-				+ (i * value_list.get(index_high).doubleValue());
-	}
-
-	@SuppressWarnings("unused")
-	private double getUpperConfidenceIntervalValueFromList(
-			List<Double> value_list) {
-		double mean = 0;
-		double stddev = 0;
-		for (double d : value_list)
-			mean = mean + d;
-		mean = mean / ((double) value_list.size());
-		if (value_list.size() >= 2)
-			for (double d : value_list)
-				stddev = stddev + Math.pow(d - mean, 2);
-		stddev = Math.sqrt(stddev / ((double) value_list.size()));
-		return mean - 1.96 * stddev / Math.sqrt((double) value_list.size());
-	}
-
-	@SuppressWarnings("unused")
-	private double getUpper5thConfidenceIntervalValueFromList(
-			List<Double> value_list) {
-		double mean = 0;
-		double stddev = 0;
-		for (double d : value_list)
-			mean = mean + d;
-		mean = mean / ((double) value_list.size());
-		if (value_list.size() >= 2)
-			for (double d : value_list)
-				stddev = stddev + Math.pow(d - mean, 2);
-		stddev = Math.sqrt(stddev / ((double) value_list.size()));
-		return mean + 0.06275 * stddev / Math.sqrt((double) value_list.size());
-	}
-
-	@SuppressWarnings("unused")
-	private double getLower5thConfidenceIntervalValueFromList(
-			List<Double> value_list) {
-		double mean = 0;
-		double stddev = 0;
-		for (double d : value_list)
-			mean = mean + d;
-		mean = mean / ((double) value_list.size());
-		if (value_list.size() >= 2)
-			for (double d : value_list)
-				stddev = stddev + Math.pow(d - mean, 2);
-		stddev = Math.sqrt(stddev / ((double) value_list.size()));
-		return mean - 0.06275 * stddev / Math.sqrt((double) value_list.size());
-	}
-
-	private double getPredominantAverageWindDir(List<Double> value_list) {
-		if (value_list.size() < 1)
-			return -1;
-		List<Double> v0 = new ArrayList<Double>();
-		List<Double> v45 = new ArrayList<Double>();
-		List<Double> v90 = new ArrayList<Double>();
-		List<Double> v135 = new ArrayList<Double>();
-		List<Double> v180 = new ArrayList<Double>();
-		List<Double> v225 = new ArrayList<Double>();
-		List<Double> v270 = new ArrayList<Double>();
-		List<Double> v315 = new ArrayList<Double>();
-
-		for (double dir : value_list) {
-			if (dir <= 22.5)
-				v0.add(dir);
-			else if (dir <= (45.0 + 22.5))
-				v45.add(dir);
-			else if (dir <= (90.0 + 22.5))
-				v90.add(dir);
-			else if (dir <= (135.0 + 22.5))
-				v135.add(dir);
-			else if (dir <= (180.0 + 22.5))
-				v180.add(dir);
-			else if (dir <= (225.0 + 22.5))
-				v225.add(dir);
-			else if (dir <= (270.0 + 22.5))
-				v270.add(dir);
-			else if (dir <= (315.0 + 22.5))
-				v315.add(dir);
-			else
-				v0.add(dir - 360.0);
-		}
-		double m = 0;
-		List<List<Double>> v_set = new ArrayList<List<Double>>();
-		v_set.add(v0);
-		v_set.add(v45);
-		v_set.add(v90);
-		v_set.add(v135);
-		v_set.add(v180);
-		v_set.add(v225);
-		v_set.add(v270);
-		v_set.add(v315);
-		List<Double> m_list = null;
-		for (List<Double> l : v_set) {
-			if (l.size() > m) {
-				m = l.size();
-				m_list = l;
-			}
-		}
-		double avg = 0;
-		for (double d : m_list) {
-			avg = avg + d;
-		}
-		avg = avg / ((double) m_list.size());
-		if (avg < 0.0)
-			avg = avg + 360.0;
-		return avg;
-	}
-
 	private double normalizeAngle(double angle) {
 		if (angle >= 0.0) {
 			if (angle < 360.0)
@@ -307,8 +387,58 @@ public class LocationWeather {
 		return normalizeAngle(wdir);
 	}
 
-	private XMLFile getFileOfType(XMLFileType type, String location) {
-		String url = Calculator.basePath;
+	private String fileKey(XMLFileType type) {
+		return ParsedEnsembleCache.key(EnsembleFileCache.runName(runDateString(), time), type, location, forecastHorizon);
+	}
+
+	private synchronized XMLFile getParsedFile(XMLFileType type, String key) {
+		if (key.equals(parsedKeys.get(type)))
+			return parsedFiles.get(type);
+		return null;
+	}
+
+	/**
+	 * Keep a valid parsed file so that recalculating the same run doesn't need the
+	 * shared cache, which may have evicted it.
+	 */
+	private synchronized void retainParsedFile(XMLFileType type, XMLFile file) {
+		if (file == null || !file.isValid())
+			return;
+		parsedKeys.put(type, fileKey(type));
+		parsedFiles.put(type, file);
+	}
+
+	/**
+	 * Stop keeping the parsed files of the last calculation for reuse. The files are
+	 * still used to build the member series until the next calculation.
+	 */
+	synchronized void releaseParsedFiles() {
+		parsedKeys.clear();
+		parsedFiles.clear();
+	}
+
+	/**
+	 * Get a parsed file. The file from this location's last calculation is reused if it
+	 * was for the same run, otherwise it comes from the shared parsed file cache,
+	 * downloading and parsing it if no other calculation already has.
+	 */
+	private CompletableFuture<XMLFile> getFileOfType(final XMLFileType type, final String location) {
+		String key = fileKey(type);
+		XMLFile retained = getParsedFile(type, key);
+		if (retained != null)
+			return CompletableFuture.completedFuture(retained);
+		return ParsedEnsembleCache.getInstance().get(key, new Supplier<CompletableFuture<XMLFile>>() {
+			@Override
+			public CompletableFuture<XMLFile> get() {
+				return loadFileOfType(type, location);
+			}
+		});
+	}
+
+	/**
+	 * Get the date of the model run in yyyyMMdd format.
+	 */
+	private String runDateString() {
 		String dt = "0000" + date.get(Calendar.YEAR);
 		dt = dt.substring(dt.length() - 4);
 		String month = "00" + (date.get(Calendar.MONTH) + 1);
@@ -317,25 +447,126 @@ public class LocationWeather {
 		String day = "00" + date.get(Calendar.DAY_OF_MONTH);
 		day = day.substring(day.length() - 2);
 		dt += day;
+		return dt;
+	}
+
+	private CompletableFuture<XMLFile> loadFileOfType(final XMLFileType type, String location) {
+		String url = Calculator.basePath;
+		String dt = runDateString();
 		url = url + dt + "/" + time.toString()
 				+ "/" + type.toString() + "/raw/";
-		String filename = dt + time.toString()
+		final String filename = dt + time.toString()
 				+ "_GEPS-NAEFS-RAW_" + location + "_" + type.toString()
 				+ "_000-384.xml.bz2";
+		final String run = EnsembleFileCache.runName(dt, time);
+		final int horizon = forecastHorizon;
+		final EnsembleFileCache cache = EnsembleFileCache.getInstance();
+		if (cache != null) {
+			File cached = cache.get(run, filename);
+			if (cached != null)
+				return parseCached(cached, type, forecastHorizon, cache);
+		}
 		URL u;
-		String out_loc;
 		try {
 			u = new URL(url + filename);
-			out_loc = WebDownloader.download(u);
-			out_loc = BZipExtractor.extract(out_loc);
 		} catch (MalformedURLException e) {
 			return null;
-		} catch (IOException e) {
-			return null;
 		}
-		return new XMLFile(out_loc, type);
+		//the download runs on the shared fetcher so all variables and locations download at the same time
+		return EnsembleFetcher.getInstance().fetch(u).handle(new BiFunction<File, Throwable, CompletableFuture<XMLFile>>() {
+			@Override
+			public CompletableFuture<XMLFile> apply(File downloaded, Throwable t) {
+				if (t != null)
+					return CompletableFuture.completedFuture(null);
+				return parseDownloaded(downloaded, type, horizon, cache, run, filename);
+			}
+		}).thenCompose(new Function<CompletableFuture<XMLFile>, CompletableFuture<XMLFile>>() {
+			@Override
+			public CompletableFuture<XMLFile> apply(CompletableFuture<XMLFile> parsed) {
+				return parsed;
+			}
+		});
+	}
+
+	private static CompletableFuture<XMLFile> parseDownloaded(final File downloaded, XMLFileType type, int horizon, EnsembleFileCache cache,
+			String run, String filename) {
+		if (cache != null) {
+			try {
+				return parseCached(cache.put(run, filename, downloaded), type, horizon, cache);
+			} catch (IOException e) {
+				//the cache is only an optimisation, if the file can't be stored in it parse the download directly
+			}
+		}
+		//the file is decompressed while it is parsed, remove the download once it has been read
+		return XMLFile.parseAsync(downloaded.getAbsolutePath(), type, horizon).whenComplete(new BiConsumer<XMLFile, Throwable>() {
+			@Override
+			public void accept(XMLFile file, Throwable t) {
+				downloaded.delete();
+			}
+		});
+	}
+
+	/**
+	 * Parse a file in the download cache, releasing it so it can be evicted once it has been read.
+	 */
+	private static CompletableFuture<XMLFile> parseCached(final File cached, XMLFileType type, int horizon,
+			final EnsembleFileCache cache) {
+		return XMLFile.parseAsync(cached.getAbsolutePath(), type, horizon).whenComplete(new BiConsumer<XMLFile, Throwable>() {
+			@Override
+			public void accept(XMLFile file, Throwable t) {
+				cache.release(cached);
+			}
+		});
+	}
+
+	/**
+	 * Start downloading and parsing the files for a model run without waiting for them.
+	 * The parsed files are shared through the parsed file cache so a later call to
+	 * {@link #calculate} will pick them up.
+	 * @return A future that completes with true if every file was loaded.
+	 */
+	CompletableFuture<Boolean> prefetch(Calendar date, Time time) {
+		this.date = date;
+		this.time = time;
+		final List<CompletableFuture<XMLFile>> files = new ArrayList<CompletableFuture<XMLFile>>(variables.size());
+		for (XMLFileType type : variables)
+			files.add(getFileOfType(type, location));
+		return CompletableFuture.allOf(files.toArray(new CompletableFuture<?>[files.size()])).handle(new BiFunction<Void, Throwable, Boolean>() {
+			@Override
+			public Boolean apply(Void v, Throwable t) {
+				if (t != null)
+					return Boolean.FALSE;
+				for (CompletableFuture<XMLFile> file : files) {
+					XMLFile f = file.join();
+					if (f == null || !f.isValid())
+						return Boolean.FALSE;
+				}
+				return Boolean.TRUE;
+			}
+		});
 	}
 	
+	/**
+	 * Wait for a file to be parsed. Unlike join the wait can be interrupted, a file that
+	 * failed to load is returned as null and reported by {@link #missingFile(XMLFile, XMLFileType)}.
+	 */
+	private static XMLFile awaitFile(CompletableFuture<XMLFile> future) throws InterruptedException {
+		if (future == null)
+			return null;
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	private static String missingFile(XMLFile file, XMLFileType type) {
+		if (file == null || !file.isValid())
+			return type.toString();
+		return null;
+	}
+
 	/**
 	 * Normalize a wind direction in compass degrees to be in [0, 360).
 	 * @param direction The starting wind direction.
@@ -356,225 +587,495 @@ public class LocationWeather {
 	 * @param date
 	 * @param time
 	 * @param ignorePrecip
-	 * @throws InterruptedException
+	 * @throws InterruptedException Thrown if the thread is interrupted while waiting for the ensemble files.
 	 * @returns True if all imported data was valid, false if there were invalid weather values.
 	 */
 	boolean calculate(List<Integer> membersToUse, Model model, List<Integer> members, TimeZoneInfo timezone,
 			Calendar date, Time time, boolean ignorePrecip) throws InterruptedException {
 	    boolean retval = true;
+		dataError = false;
+		calculationError = null;
 		this.model = model;
 		this.members = membersToUse;
 		this.date = date;
 		this.time = time;
 		//start the xml files downloading and extracting
-		temp_file = getFileOfType(XMLFileType.TEMPERATURE, location);
-		rh_file = getFileOfType(XMLFileType.RELATIVE_HUMIDITY, location);
-		apcp_file = getFileOfType(XMLFileType.PRECIPITATION, location);
-		wind_file = getFileOfType(XMLFileType.WIND_SPEED, location);
-		wdir_file = getFileOfType(XMLFileType.WIND_DIRECTION, location);
+		CompletableFuture<XMLFile> temp_future = getFileOfType(XMLFileType.TEMPERATURE, location);
+		CompletableFuture<XMLFile> rh_future = getFileOfType(XMLFileType.RELATIVE_HUMIDITY, location);
+		CompletableFuture<XMLFile> wind_future = getFileOfType(XMLFileType.WIND_SPEED, location);
+		//optional variables that aren't needed are never downloaded
+		boolean useApcp = !ignorePrecip && variables.contains(XMLFileType.PRECIPITATION);
+		boolean useWdir = variables.contains(XMLFileType.WIND_DIRECTION);
+		CompletableFuture<XMLFile> apcp_future = useApcp ? getFileOfType(XMLFileType.PRECIPITATION, location) : null;
+		CompletableFuture<XMLFile> wdir_future = useWdir ? getFileOfType(XMLFileType.WIND_DIRECTION, location) : null;
 		//create the ridiculous number of variables that are needed
-		hour_data = new ArrayList<Hour>();
-		day_data = new ArrayList<Day>();
-		double location_50 = (membersToUse.size() - 1) * (((double)percentile) / 100.0);
-		double location_inv_50 = (membersToUse.size() - 1) * (((double)(100 - percentile)) / 100.0);
-		double hours_apcp_50 = 0.0;
-		double acc_apcp = 0.0;
-		double curr_apcp = 0.0;
-		double hours_rh_50 = 0.0;
-		double hours_temp_50 = 0.0;
-		double hours_wind_50 = 0.0;
+		int percentileCount = percentiles.length;
+		int[] order = ascendingOrder(percentiles);
+		//size the buffers for the number of forecasts that will be read
+		int forecastCount = forecastCount();
+		int hourCapacity = (forecastCount - 1) * 6 + 1;
+		int dayCapacity = hourCapacity / 24 + 2;
+		percentile_hour_data = new ArrayList<HourlySeries>(percentileCount);
+		percentile_day_data = new ArrayList<DailySeries>(percentileCount);
+		for (int k = 0; k < percentileCount; k++) {
+			percentile_hour_data.add(new HourlySeries(hourCapacity));
+			percentile_day_data.add(new DailySeries(dayCapacity));
+		}
+		hour_data = percentile_hour_data.get(0);
+		day_data = percentile_day_data.get(0);
+		int[] memberIds = new int[membersToUse.size()];
+		for (int i = 0; i < memberIds.length; i++)
+			memberIds[i] = membersToUse.get(i);
+		//the ensemble statistics are accumulated from the member values as they are read
+		statistic_hour_data = new EnumMap<EnsembleStatistic, HourlySeries>(EnsembleStatistic.class);
+		statistic_day_data = new EnumMap<EnsembleStatistic, DailySeries>(EnsembleStatistic.class);
+		for (EnsembleStatistic statistic : statistics) {
+			statistic_hour_data.put(statistic, new HourlySeries(hourCapacity));
+			statistic_day_data.put(statistic, new DailySeries(dayCapacity));
+		}
+		StatisticAccumulator statistic_acc = statistics.isEmpty() ? null : new StatisticAccumulator(memberIds);
+		//the fractional index of each percentile in ascending order. Temperature and wind speed
+		//use the percentile while RH and precipitation use 100 minus the percentile, so
+		//location_inv_perc[k] belongs to the percentile at order[percentileCount - 1 - k]
+		double[] location_perc = new double[percentileCount];
+		double[] location_inv_perc = new double[percentileCount];
+		for (int k = 0; k < percentileCount; k++) {
+			location_perc[k] = Percentiles.index(memberIds.length, percentiles[order[k]]);
+			location_inv_perc[k] = Percentiles.index(memberIds.length, 100 - percentiles[order[percentileCount - 1 - k]]);
+		}
+		double[] temp_values = new double[memberIds.length];
+		double[] rh_values = new double[memberIds.length];
+		double[] apcp_values = new double[memberIds.length];
+		double[] wind_values = new double[memberIds.length];
+		double[] temp_perc = new double[percentileCount];
+		double[] rh_perc = new double[percentileCount];
+		double[] apcp_perc = new double[percentileCount];
+		double[] wind_perc = new double[percentileCount];
+		double[] acc_apcp = new double[percentileCount];
+		double[] wdir_values = new double[memberIds.length];
 		double hours_wdir = 0;
+		//the hourly directions and the directions for the current day are binned as the forecasts are read
+		WindDirections hour_dirs = new WindDirections();
+		daily_wdirs = new DailyWindDirections(dayCapacity);
 		Forecast temp_forecast, rh_forecast, apcp_forecast, wind_forecast, wdir_forecast;
-		String tm2 = "";
-		long forecast_local_hr = 0;
-		//clear any previous calculations
-		for (int i = 0; i < memberHourData.size(); i++)
-			memberHourData.get(i).clear();
-		//synchronize with the jobs downloading the xml files
-		temp_file.join();
-		rh_file.join();
-		apcp_file.join();
-		wind_file.join();
-		wdir_file.join();
+		//the offset from UTC to local time in hours
+		int timezone_offset = (int)(timezone.getTimezoneOffset().getTotalHours() + timezone.getDSTAmount().getTotalHours());
+		//clear any previous calculations and decide which members to keep
+		memberHourData = new HourlySeries[MEMBER_COUNT];
+		memberDayData = new DailySeries[MEMBER_COUNT];
+		keepMember = new boolean[MEMBER_COUNT];
+		for (int i = 0; i < MEMBER_COUNT; i++) {
+			if (memberOutput == MemberOutput.ALL)
+				keepMember[i] = true;
+			else if (memberOutput == MemberOutput.SELECTED)
+				keepMember[i] = membersToUse.contains(i + 1);
+		}
+		forecastsRead = 0;
+		//synchronize with the jobs parsing the xml files
+		temp_file = awaitFile(temp_future);
+		rh_file = awaitFile(rh_future);
+		apcp_file = awaitFile(apcp_future);
+		wind_file = awaitFile(wind_future);
+		wdir_file = awaitFile(wdir_future);
+		retainParsedFile(XMLFileType.TEMPERATURE, temp_file);
+		retainParsedFile(XMLFileType.RELATIVE_HUMIDITY, rh_file);
+		retainParsedFile(XMLFileType.PRECIPITATION, apcp_file);
+		retainParsedFile(XMLFileType.WIND_SPEED, wind_file);
+		retainParsedFile(XMLFileType.WIND_DIRECTION, wdir_file);
+		//a file that couldn't be loaded fails only this location, the others can still be calculated
+		String missing = missingFile(temp_file, XMLFileType.TEMPERATURE);
+		if (missing == null)
+			missing = missingFile(rh_file, XMLFileType.RELATIVE_HUMIDITY);
+		if (missing == null && useApcp)
+			missing = missingFile(apcp_file, XMLFileType.PRECIPITATION);
+		if (missing == null)
+			missing = missingFile(wind_file, XMLFileType.WIND_SPEED);
+		if (missing == null && useWdir)
+			missing = missingFile(wdir_file, XMLFileType.WIND_DIRECTION);
+		if (missing != null) {
+			calculationError = new IOException("Unable to load the " + missing + " forecast for " + location);
+			return false;
+		}
+		forecastIndices = new int[temp_file.getForecastHourCount()];
+		forecastTimes = new int[temp_file.getForecastHourCount()];
 		//iterarte over the data to calculate the daily and hourly values
 		for (int i = 0; i < temp_file.getForecastHourCount(); i++) {
 			//get the forecast for the current hour
 			temp_forecast = temp_file.getForecastAt(i);
 			rh_forecast = rh_file.getForecastAt(i);
-			apcp_forecast = apcp_file.getForecastAt(i);
+			apcp_forecast = useApcp ? apcp_file.getForecastAt(i) : null;
 			wind_forecast = wind_file.getForecastAt(i);
-			wdir_forecast = wdir_file.getForecastAt(i);
-			int exists = 0;
-			for (int k = 0; k < membersToUse.size(); k++) {
-				if (temp_forecast.modelExists(membersToUse.get(k)))
-					exists++;
-			}
-			if (exists == 0)
+			wdir_forecast = useWdir ? wdir_file.getForecastAt(i) : null;
+			if (temp_forecast.countMembers(memberIds) == 0)
 				break;
 
-			//get the zulu time
-			int forecast_zulu_hr = Integer.parseInt(apcp_forecast.getValidTime().substring(8, 10));
-			//convert it to local time
-			long temp_forecast_local_hr = forecast_zulu_hr + timezone.getTimezoneOffset().getTotalHours() + timezone.getDSTAmount().getTotalHours();
-			//clamp the time to [0, 23]
-			int dayoffset = 0;
-			while (temp_forecast_local_hr < 0) {
-				temp_forecast_local_hr += 24;
-				dayoffset -= 1;
-			}
-			while (temp_forecast_local_hr > 23) {
-				temp_forecast_local_hr -= 24;
-				dayoffset += 1;
-			}
-			forecast_local_hr = temp_forecast_local_hr;
-
-			//get the date
-			String part = apcp_forecast.getValidTime().substring(0, 8);
-			SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
-			Calendar dt = Calendar.getInstance();
+			//get the local time in hours since the epoch from the zulu time
+			String valid_time = temp_forecast.getValidTime();
+			int forecast_time;
 			try {
-				dt.setTime(sdf.parse(part));
-			} catch (Exception e) {
+				forecast_time = HourlySeries.toTime(Integer.parseInt(valid_time.substring(0, 4)),
+						Integer.parseInt(valid_time.substring(4, 6)), Integer.parseInt(valid_time.substring(6, 8)),
+						Integer.parseInt(valid_time.substring(8, 10)));
+			} catch (RuntimeException e) {
 				continue;
 			}
-			dt.add(Calendar.DAY_OF_YEAR, dayoffset);
-			sdf = new SimpleDateFormat("dd/MM/yyyy");
-			tm2 = sdf.format(dt.getTime());
-
-			for (int member = 0; member < memberHourData.size(); member++) {
-				try {
-					memberHourData.get(member).add(
-							new Hour(tm2, (int) forecast_local_hr,
-									temp_forecast.get(member + 1),
-									rh_forecast.get(member + 1),
-									apcp_forecast.get(member + 1),
-									wind_forecast.get(member + 1),
-									-1.0,
-									wdir_forecast.get(member + 1)));
-				} catch (ModelDoesNotExistException e) {
-				}
+			forecast_time += timezone_offset;
+
+			//store the wind direction of the previous day when a new day starts
+			daily_wdirs.setDay(Math.floorDiv(forecast_time, 24));
+
+			forecastIndices[forecastsRead] = i;
+			forecastTimes[forecastsRead++] = forecast_time;
+
+			//get the data for the requested members, the percentiles are found by selection so no sorting is needed
+			int temp_count = temp_forecast.getValuesForMembers(memberIds, temp_values);
+			int rh_count = rh_forecast.getValuesForMembers(memberIds, rh_values);
+			int apcp_count = useApcp ? apcp_forecast.getValuesForMembers(memberIds, apcp_values) : 0;
+			int wind_count = wind_forecast.getValuesForMembers(memberIds, wind_values);
+
+			//get every requested percentile of each value in a single pass
+			if (useApcp)
+				Percentiles.valuesAt(apcp_values, apcp_count, location_inv_perc, apcp_perc);
+			Percentiles.valuesAt(rh_values, rh_count, location_inv_perc, rh_perc);
+			Percentiles.valuesAt(temp_values, temp_count, location_perc, temp_perc);
+			Percentiles.valuesAt(wind_values, wind_count, location_perc, wind_perc);
+
+			//get the hours wind direction, it is the same for every percentile
+			if (useWdir) {
+				int wdir_count = wdir_forecast.getValuesForMembers(memberIds, wdir_values);
+				hours_wdir = normalizeWindDirection(hour_dirs.predominantAverage(wdir_values, 0, wdir_count));
+				daily_wdirs.add(wdir_values, 0, wdir_count);
 			}
 
-			//get the data for the requested members and order it lowest to highest
-			List<Double> temp_model_list = temp_forecast.getValuesForMembers(membersToUse);
-			Collections.sort(temp_model_list);
-			List<Double> rh_model_list = rh_forecast.getValuesForMembers(membersToUse);
-			Collections.sort(rh_model_list);
-			List<Double> apcp_model_list = apcp_forecast.getValuesForMembers(membersToUse);
-			Collections.sort(apcp_model_list);
-			List<Double> wind_model_list = wind_forecast.getValuesForMembers(membersToUse);
-			Collections.sort(wind_model_list);
-			List<Double> wdir_model_list = wdir_forecast.getValuesForMembers(membersToUse);
-
-			//get the precipitation
-			curr_apcp = getPercentileValueFromList(apcp_model_list, location_inv_50);
-			hours_apcp_50 = Math.max(curr_apcp - acc_apcp, 0.0);
-			acc_apcp = curr_apcp;
-
-			//get the hours RH at the (100 - 50)th percentile
-			hours_rh_50 = getPercentileValueFromList(rh_model_list, location_inv_50);
-
-			//get the hours temperature
-			hours_temp_50 = getPercentileValueFromList(temp_model_list, location_50);
-
-			//get the hours wind speed
-			hours_wind_50 = getPercentileValueFromList(wind_model_list, location_50);
-
-			//get the hours wind direction
-			hours_wdir = normalizeWindDirection(getPredominantAverageWindDir(wdir_model_list));
-
-			//save the current hours forecast
-			//store the hours 50th percentile data
-			Hour h = new Hour(tm2, (int) forecast_local_hr, hours_temp_50, hours_rh_50,
-			        ignorePrecip ? 0.0 : hours_apcp_50, hours_wind_50, -1.0, hours_wdir);
-			//check to see if any of the imported values were invalid.
-			if (hours_rh_50 < 0.0 || hours_rh_50 > 100.0 ||
-			        hours_temp_50 < -50.0 || hours_temp_50 > 60.0 ||
-			        hours_wind_50 < 0.0) {
-			    h.setError(true);
-			    retval = false;
-			}
-			hour_data.add(h);
-		}
-		calculateDailyWindDirection();
-		fillInGaps();
-		calculateDaily();
-		calculateDailyMembers();
+			//the percentile selection reorders the values so the statistics read the members from the forecasts
+			if (statistic_acc != null)
+				statistic_acc.add(forecast_time, temp_forecast, rh_forecast, apcp_forecast, wind_forecast,
+						wdir_forecast, hours_wdir);
+
+			for (int k = 0; k < percentileCount; k++) {
+				int series = order[k];
+				int inv = percentileCount - 1 - k;
+				//get the precipitation
+				double hours_apcp = Math.max(apcp_perc[inv] - acc_apcp[series], 0.0);
+				acc_apcp[series] = apcp_perc[inv];
+				//get the hours RH at the (100 - P)th percentile
+				double hours_rh = rh_perc[inv];
+				//get the hours temperature and wind speed at the Pth percentile
+				double hours_temp = temp_perc[k];
+				double hours_wind = wind_perc[k];
+
+				//save the current hours forecast
+				HourlySeries hours = percentile_hour_data.get(series);
+				int h = hours.add(forecast_time, hours_temp, hours_rh,
+				        ignorePrecip ? 0.0 : hours_apcp, hours_wind, -1.0, hours_wdir);
+				//check to see if any of the imported values were invalid.
+				if (hours_rh < 0.0 || hours_rh > 100.0 ||
+				        hours_temp < -50.0 || hours_temp > 60.0 ||
+				        hours_wind < 0.0) {
+				    hours.setError(h, true);
+				    retval = false;
+				}
+			}
+		}
+		for (int k = 0; k < percentileCount; k++) {
+			percentile_hour_data.set(k, fillInGaps(percentile_hour_data.get(k)));
+			calculateDaily(percentile_hour_data.get(k), percentile_day_data.get(k));
+		}
+		hour_data = percentile_hour_data.get(0);
+		dataError = !retval;
 		return retval;
 	}
 
-	private void fillInGaps() {
-		double temp50[] = new double[hour_data.size()];
-		double rh50[] = new double[hour_data.size()];
-		double ws50[] = new double[hour_data.size()];
-		double times[] = new double[hour_data.size()];
-		for (int i = 0; i < hour_data.size(); i++) {
-			times[i] = i * 6.0;
-			temp50[i] = hour_data.get(i).getTemperature();
-			rh50[i] = hour_data.get(i).getRelativeHumidity();
-			ws50[i] = hour_data.get(i).getWindSpeed();
-		}
-		SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
-		SplineInterpolator spline = new SplineInterpolator();
-		PolynomialSplineFunction funct50 = spline.interpolate(times, temp50);
-		PolynomialSplineFunction funcr50 = spline.interpolate(times, rh50);
-		PolynomialSplineFunction funcw50 = spline.interpolate(times, ws50);
-		for (int i = hour_data.size() - 1; i > 0; i--) {
-			Hour data50 = hour_data.get(i - 1);
-			int insertAt = i;
-			Calendar c = (Calendar)data50.getCalendarDate().clone();
-			for (int j = 1; j < 6; j++) {
-				c.add(Calendar.HOUR_OF_DAY, 1);
-				int hour = data50.getHour() + j;
-				int dayOffset = 0;
-				while (hour < 0) {
-					hour += 24;
-					dayOffset += 1;
+	/**
+	 * Accumulates the ensemble statistics from the member values of each forecast as it
+	 * is read. Only the previous forecast and the current days aggregates of each member
+	 * are kept, each hour and day is added to the statistic series as soon as it is
+	 * complete. The forecast hours use the members values, the 5 hours after each
+	 * forecast use the members values linearly interpolated to the next forecast, and the
+	 * days use the members daily values from their forecast hours, the same values as
+	 * {@link LocationWeather#calculateMemberDaily(HourlySeries, WindDirections)}.
+	 */
+	private class StatisticAccumulator {
+		private final int[] ids;
+		private final double[] temp;
+		private final double[] rh;
+		private final double[] ws;
+		private final boolean[] valid;
+		private final double[] prevTemp;
+		private final double[] prevRh;
+		private final double[] prevWs;
+		private final boolean[] prevValid;
+		private final double[] accPrecip;
+		private final double[] minTemp;
+		private final double[] maxTemp;
+		private final double[] minRh;
+		private final double[] dayPrecip;
+		private final double[] minWs;
+		private final double[] maxWs;
+		private final boolean[] dayValid;
+		private final RunningStatistics temp_stats = new RunningStatistics();
+		private final RunningStatistics rh_stats = new RunningStatistics();
+		private final RunningStatistics precip_stats = new RunningStatistics();
+		private final RunningStatistics ws_stats = new RunningStatistics();
+		private final RunningStatistics interp_temp_stats = new RunningStatistics();
+		private final RunningStatistics interp_rh_stats = new RunningStatistics();
+		private final RunningStatistics interp_precip_stats = new RunningStatistics();
+		private final RunningStatistics interp_ws_stats = new RunningStatistics();
+		private final RunningStatistics min_temp_stats = new RunningStatistics();
+		private final RunningStatistics max_temp_stats = new RunningStatistics();
+		private final RunningStatistics min_rh_stats = new RunningStatistics();
+		private final RunningStatistics day_precip_stats = new RunningStatistics();
+		private final RunningStatistics min_ws_stats = new RunningStatistics();
+		private final RunningStatistics max_ws_stats = new RunningStatistics();
+		private int prevTime = Integer.MIN_VALUE;
+		private double prevWdir = 0;
+		private int day = Integer.MIN_VALUE;
+
+		StatisticAccumulator(int[] ids) {
+			this.ids = ids;
+			temp = new double[ids.length];
+			rh = new double[ids.length];
+			ws = new double[ids.length];
+			valid = new boolean[ids.length];
+			prevTemp = new double[ids.length];
+			prevRh = new double[ids.length];
+			prevWs = new double[ids.length];
+			prevValid = new boolean[ids.length];
+			accPrecip = new double[ids.length];
+			minTemp = new double[ids.length];
+			maxTemp = new double[ids.length];
+			minRh = new double[ids.length];
+			dayPrecip = new double[ids.length];
+			minWs = new double[ids.length];
+			maxWs = new double[ids.length];
+			dayValid = new boolean[ids.length];
+		}
+
+		/**
+		 * Add the member values of the next forecast. A member is only used if it is
+		 * in every loaded file, the same as the member series.
+		 */
+		void add(int time, Forecast temp_forecast, Forecast rh_forecast, Forecast apcp_forecast,
+				Forecast wind_forecast, Forecast wdir_forecast, double wdir) {
+			//store the previous day when a new day starts
+			int forecast_day = Math.floorDiv(time, 24);
+			if (forecast_day != day) {
+				if (day != Integer.MIN_VALUE)
+					addDay();
+				day = forecast_day;
+			}
+			temp_stats.clear();
+			rh_stats.clear();
+			precip_stats.clear();
+			ws_stats.clear();
+			for (int m = 0; m < ids.length; m++) {
+				int id = ids[m];
+				valid[m] = temp_forecast.modelExists(id) && rh_forecast.modelExists(id) && wind_forecast.modelExists(id) &&
+						(apcp_forecast == null || apcp_forecast.modelExists(id)) &&
+						(wdir_forecast == null || wdir_forecast.modelExists(id));
+				if (!valid[m])
+					continue;
+				temp[m] = temp_forecast.get(id, 0.0);
+				rh[m] = rh_forecast.get(id, 0.0);
+				ws[m] = wind_forecast.get(id, 0.0);
+				//the precipitation is accumulated from the start of the run
+				double precip = 0.0;
+				if (apcp_forecast != null) {
+					double acc = apcp_forecast.get(id, 0.0);
+					precip = Math.max(acc - accPrecip[m], 0.0);
+					accPrecip[m] = Math.max(acc, accPrecip[m]);
 				}
-				while (hour > 23) {
-					hour -= 23;
-					dayOffset -= 1;
+				temp_stats.add(temp[m]);
+				rh_stats.add(rh[m]);
+				precip_stats.add(precip);
+				ws_stats.add(ws[m]);
+				if (!dayValid[m]) {
+					dayValid[m] = true;
+					minTemp[m] = temp[m];
+					maxTemp[m] = temp[m];
+					minRh[m] = rh[m];
+					dayPrecip[m] = precip;
+					minWs[m] = ws[m];
+					maxWs[m] = ws[m];
+				}
+				else {
+					minTemp[m] = Math.min(minTemp[m], temp[m]);
+					maxTemp[m] = Math.max(maxTemp[m], temp[m]);
+					minRh[m] = Math.min(minRh[m], rh[m]);
+					dayPrecip[m] += precip;
+					minWs[m] = Math.min(minWs[m], ws[m]);
+					maxWs[m] = Math.max(maxWs[m], ws[m]);
 				}
-				double wdir = data50.getWindDirection();
-				double temp = funct50.value(((i - 1) * 6) + j);
-				double rh = funcr50.value(((i - 1) * 6) + j);
-				double wind = funcw50.value(((i - 1) * 6) + j);
-				wdir = constrainToRange(wdir, 0, Double.MAX_VALUE);
-				rh = constrainToRange(rh, 0.0, 100.0);
-				temp = constrainToRange(temp, -50.0, 60.0);
-				Calendar c2 = (Calendar)c.clone();
-				c2.add(Calendar.DAY_OF_YEAR, dayOffset);
-				String tm2 = format.format(c2.getTime());
-				Hour h = new Hour(tm2, (int)data50.getHour() + j, temp, rh, 0, wind, -1.0, wdir);
-				h.setInterpolated(true);
-				hour_data.add(insertAt, h);
-				insertAt++;
 			}
+			//the hours between the forecasts come before this forecast
+			if (prevTime != Integer.MIN_VALUE)
+				addInterpolatedHours();
+			addHour(time, temp_stats, rh_stats, precip_stats, ws_stats, wdir, false);
+			prevTime = time;
+			prevWdir = constrainToRange(wdir, 0, Double.MAX_VALUE);
+			System.arraycopy(temp, 0, prevTemp, 0, ids.length);
+			System.arraycopy(rh, 0, prevRh, 0, ids.length);
+			System.arraycopy(ws, 0, prevWs, 0, ids.length);
+			System.arraycopy(valid, 0, prevValid, 0, ids.length);
 		}
-	}
 
-	private void calculateDailyWindDirection() {
-		List<Double> wdir_daily_set = new ArrayList<Double>();
-		Calendar dt = (Calendar)hour_data.get(0).getCalendarDate().clone();
-		for (int i = 0; i < hour_data.size(); i++) {
-			Hour h = hour_data.get(i);
-			if (h.getCalendarDate().get(Calendar.DAY_OF_YEAR) != dt.get(Calendar.DAY_OF_YEAR)) {
-				double wdir = getPredominantAverageWindDir(wdir_daily_set);
-				daily_wdirs.add(wdir);
-				wdir_daily_set.clear();
+		/**
+		 * Add the 5 hours after the previous forecast, interpolating the members that
+		 * are in both forecasts. There is no precipitation in the interpolated hours.
+		 */
+		private void addInterpolatedHours() {
+			for (int j = 1; j < 6; j++) {
+				double f = j / 6.0;
+				interp_temp_stats.clear();
+				interp_rh_stats.clear();
+				interp_precip_stats.clear();
+				interp_ws_stats.clear();
+				for (int m = 0; m < ids.length; m++) {
+					if (!valid[m] || !prevValid[m])
+						continue;
+					interp_temp_stats.add((1 - f) * prevTemp[m] + f * temp[m]);
+					interp_rh_stats.add((1 - f) * prevRh[m] + f * rh[m]);
+					interp_precip_stats.add(0.0);
+					interp_ws_stats.add((1 - f) * prevWs[m] + f * ws[m]);
+				}
+				addHour(prevTime + j, interp_temp_stats, interp_rh_stats, interp_precip_stats, interp_ws_stats,
+						prevWdir, true);
+			}
+		}
+
+		private void addHour(int time, RunningStatistics t, RunningStatistics r, RunningStatistics p,
+				RunningStatistics w, double wdir, boolean interpolated) {
+			if (t.getCount() == 0)
+				return;
+			for (Map.Entry<EnsembleStatistic, HourlySeries> entry : statistic_hour_data.entrySet()) {
+				EnsembleStatistic statistic = entry.getKey();
+				int row = entry.getValue().add(time, statistic(t, statistic), statistic(r, statistic),
+						statistic(p, statistic), statistic(w, statistic), -1.0, wdir);
+				entry.getValue().setInterpolated(row, interpolated);
+			}
+		}
+
+		/**
+		 * Add the statistics of the members daily values for the current day.
+		 */
+		private void addDay() {
+			min_temp_stats.clear();
+			max_temp_stats.clear();
+			min_rh_stats.clear();
+			day_precip_stats.clear();
+			min_ws_stats.clear();
+			max_ws_stats.clear();
+			for (int m = 0; m < ids.length; m++) {
+				if (!dayValid[m])
+					continue;
+				min_temp_stats.add(minTemp[m]);
+				max_temp_stats.add(maxTemp[m]);
+				min_rh_stats.add(minRh[m]);
+				day_precip_stats.add(dayPrecip[m]);
+				min_ws_stats.add(minWs[m]);
+				max_ws_stats.add(maxWs[m]);
+				dayValid[m] = false;
 			}
+			if (min_temp_stats.getCount() == 0)
+				return;
+			//wind direction is reported as 0 if it wasn't loaded
+			double wdir = variables.contains(XMLFileType.WIND_DIRECTION) && daily_wdirs.size() > 0 ?
+					daily_wdirs.get(daily_wdirs.size() - 1) : 0.0;
+			for (Map.Entry<EnsembleStatistic, DailySeries> entry : statistic_day_data.entrySet()) {
+				EnsembleStatistic statistic = entry.getKey();
+				entry.getValue().add(day, statistic(min_temp_stats, statistic), statistic(max_temp_stats, statistic),
+						statistic(min_rh_stats, statistic), statistic(day_precip_stats, statistic),
+						statistic(min_ws_stats, statistic), statistic(max_ws_stats, statistic), 0, 0, wdir);
+			}
+		}
+	}
 
-			Forecast wdir_forecast = wdir_file.getForecastAt(i);
-			List<Double> wdir_model_list = wdir_forecast.getValuesForMembers(members);
-			for (Double d : wdir_model_list)
-				wdir_daily_set.add(d);
+	/**
+	 * Get one of the ensemble statistics from the accumulated member values.
+	 */
+	private double statistic(RunningStatistics stats, EnsembleStatistic statistic) {
+		switch (statistic) {
+		case MEAN:
+			return stats.getMean();
+		case STANDARD_DEVIATION:
+			return stats.getStandardDeviation();
+		case MINIMUM:
+			return stats.getMin();
+		case MAXIMUM:
+			return stats.getMax();
+		case LOWER_CONFIDENCE:
+			return stats.getLowerConfidenceBound(confidenceZ);
+		default:
+			return stats.getUpperConfidenceBound(confidenceZ);
+		}
+	}
+
+	/**
+	 * Fill in the 5 missing hours between each of the 6 hourly forecasts.
+	 */
+	private HourlySeries fillInGaps(HourlySeries hour_data) {
+		return interpolateHourly(hour_data, true, true);
+	}
+
+	/**
+	 * Build an hourly series from 6 hourly data using a cubic spline for temperature, RH and
+	 * wind speed. The series is written in a single forward pass, the interpolated hours
+	 * copy the wind direction of the preceding forecast and have no precipitation.
+	 *
+	 * @param original The 6 hourly data.
+	 * @param constrain Restrict the interpolated values to the valid ranges for each variable.
+	 * @param includeLast Include the final forecast hour in the output.
+	 */
+	private static HourlySeries interpolateHourly(HourlySeries original, boolean constrain, boolean includeLast) {
+		int count = original.size();
+		int outCount = HourlySpline.outputLength(count, 6);
+		double[] temp = new double[count];
+		double[] rh = new double[count];
+		double[] ws = new double[count];
+		for (int i = 0; i < count; i++) {
+			temp[i] = original.getTemperature(i);
+			rh[i] = original.getRelativeHumidity(i);
+			ws[i] = original.getWindSpeed(i);
+		}
+		double[] work = new double[2 * count];
+		double[] tempOut = new double[outCount];
+		double[] rhOut = new double[outCount];
+		double[] wsOut = new double[outCount];
+		HourlySpline.interpolate(temp, count, 6, tempOut, work);
+		HourlySpline.interpolate(rh, count, 6, rhOut, work);
+		HourlySpline.interpolate(ws, count, 6, wsOut, work);
+		HourlySeries hours = new HourlySeries(outCount);
+		for (int i = 0; i < count; i++) {
+			if (i == count - 1 && !includeLast)
+				break;
+			int h = hours.add(original.getTime(i), original.getTemperature(i), original.getRelativeHumidity(i),
+					original.getPrecipitation(i), original.getWindSpeed(i), original.getWindGust(i), original.getWindDirection(i));
+			hours.setError(h, original.isError(i));
+			hours.setInterpolated(h, original.isInterpolated(i));
+			if (i == count - 1)
+				break;
+			double wdir = original.getWindDirection(i);
+			if (constrain)
+				wdir = constrainToRange(wdir, 0, Double.MAX_VALUE);
+			for (int j = 1; j < 6; j++) {
+				double t = tempOut[i * 6 + j];
+				double r = rhOut[i * 6 + j];
+				double w = wsOut[i * 6 + j];
+				if (constrain) {
+					r = constrainToRange(r, 0.0, 100.0);
+					t = constrainToRange(t, -50.0, 60.0);
+				}
+				h = hours.add(original.getTime(i) + j, t, r, 0, w, -1.0, wdir);
+				hours.setInterpolated(h, true);
+			}
 		}
+		return hours;
 	}
 
-	private void calculateDaily() {
-		Calendar dt = (Calendar)hour_data.get(0).getCalendarDate().clone();
-		SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
-		String tm2 = sdf.format(dt.getTime());
+	private void calculateDaily(HourlySeries hour_data, DailySeries day_data) {
+		if (hour_data.size() == 0)
+			return;
+		int dt = hour_data.getDay(0);
 		double min_temp_50 =  10000.0;
 		double max_temp_50 = -10000.0;
 		double min_wind_50 =  10000.0;
@@ -583,13 +1084,12 @@ public class LocationWeather {
 		double min_rh_50 = 10000.0;
 		int day = 0;
 		for (int i = 0; i < hour_data.size(); i++) {
-			Hour h = hour_data.get(i);
-			if (h.getCalendarDate().get(Calendar.DAY_OF_YEAR) != dt.get(Calendar.DAY_OF_YEAR)) {
+			if (hour_data.getDay(i) != dt) {
 				//calculate/store data
-				double wdir = daily_wdirs.get(day);
-				Day d = new Day(tm2, min_temp_50, max_temp_50, min_rh_50, precip_50, min_wind_50,
-						max_wind_50, wdir);
-				day_data.add(d);
+				//wind direction is reported as 0 if it wasn't loaded
+				double wdir = variables.contains(XMLFileType.WIND_DIRECTION) ? daily_wdirs.get(day) : 0.0;
+				day_data.add(dt, min_temp_50, max_temp_50, min_rh_50, precip_50, min_wind_50,
+						max_wind_50, 0, 0, wdir);
 				//clear data
 				day++;
 				min_temp_50 =  10000.0;
@@ -599,62 +1099,198 @@ public class LocationWeather {
 				min_rh_50 = 10000.0;
 				precip_50 = 0;
 
-				dt = (Calendar)h.getCalendarDate().clone();
-				tm2 = sdf.format(dt.getTime());
-			}
-
-			if (h.getRelativeHumidity() < min_rh_50)
-				min_rh_50 = h.getRelativeHumidity();
-			if (h.getTemperature() < min_temp_50)
-				min_temp_50 = h.getTemperature();
-			if (h.getTemperature() > max_temp_50)
-				max_temp_50 = h.getTemperature();
-			if (h.getWindSpeed() < min_wind_50)
-				min_wind_50 = h.getWindSpeed();
-			if (h.getWindSpeed() > max_wind_50)
-				max_wind_50 = h.getWindSpeed();
-			precip_50 += h.getPrecipitation();
-		}
-	}
-
-	private void calculateDailyMembers() {
-		double maxTemp;
-		double minTemp;
-		double maxWind;
-		double minWind;
-		double precip;
-		double minRH;
-		List<Double> wdir = new ArrayList<Double>();
-		SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
-		for (int i = 0; i < memberDayData.size(); i++) {
-			precip = 0.0;
-			maxTemp = -Double.MAX_VALUE;
-			minTemp = Double.MAX_VALUE;
-			maxWind = -Double.MAX_VALUE;
-			minWind = Double.MAX_VALUE;
-			minRH = Double.MAX_VALUE;
-			wdir.clear();
-			Calendar dt = memberHourData.get(i).get(0).getCalendarDate();
-			for (int j = 0; j < memberHourData.get(i).size(); j++) {
-				Hour h = memberHourData.get(i).get(j);
-				if (h.getCalendarDate().equals(dt)) {
-					precip += h.getPrecipitation();
-					wdir.add(h.getWindDirection());
-					if (h.getTemperature() < minTemp)
-						minTemp = h.getTemperature();
-					if (h.getTemperature() > maxTemp)
-						maxTemp = h.getTemperature();
-					if (h.getWindSpeed() < minWind)
-						minWind = h.getWindSpeed();
-					if (h.getWindSpeed() > maxWind)
-						maxWind = h.getWindSpeed();
-					if (h.getRelativeHumidity() < minRH)
-						minRH = h.getRelativeHumidity();
-				}
+				dt = hour_data.getDay(i);
+			}
+
+			double rh = hour_data.getRelativeHumidity(i);
+			double temp = hour_data.getTemperature(i);
+			double wind = hour_data.getWindSpeed(i);
+			if (rh < min_rh_50)
+				min_rh_50 = rh;
+			if (temp < min_temp_50)
+				min_temp_50 = temp;
+			if (temp > max_temp_50)
+				max_temp_50 = temp;
+			if (wind < min_wind_50)
+				min_wind_50 = wind;
+			if (wind > max_wind_50)
+				max_wind_50 = wind;
+			precip_50 += hour_data.getPrecipitation(i);
+		}
+	}
+
+	/**
+	 * Build a members 6 hourly series from the parsed ensemble files.
+	 */
+	private HourlySeries buildMemberHours(int member) {
+		if (!keepMember[member] || forecastsRead == 0)
+			return new HourlySeries(1);
+		HourlySeries hours = new HourlySeries(forecastsRead);
+		int id = member + 1;
+		for (int f = 0; f < forecastsRead; f++) {
+			int i = forecastIndices[f];
+			Forecast temp_forecast = temp_file.getForecastAt(i);
+			Forecast rh_forecast = rh_file.getForecastAt(i);
+			Forecast apcp_forecast = apcp_file == null ? null : apcp_file.getForecastAt(i);
+			Forecast wind_forecast = wind_file.getForecastAt(i);
+			Forecast wdir_forecast = wdir_file == null ? null : wdir_file.getForecastAt(i);
+			if (temp_forecast.modelExists(id) && rh_forecast.modelExists(id) && wind_forecast.modelExists(id) &&
+					(apcp_forecast == null || apcp_forecast.modelExists(id)) &&
+					(wdir_forecast == null || wdir_forecast.modelExists(id))) {
+				hours.add(forecastTimes[f],
+						temp_forecast.get(id, 0.0),
+						rh_forecast.get(id, 0.0),
+						apcp_forecast == null ? 0.0 : apcp_forecast.get(id, 0.0),
+						wind_forecast.get(id, 0.0),
+						-1.0,
+						wdir_forecast == null ? 0.0 : wdir_forecast.get(id, 0.0));
+			}
+		}
+		return hours;
+	}
+
+	/**
+	 * Build a members hourly and daily series if they haven't been built yet. The
+	 * caller must hold the lock on this location, or be a task forked by a thread
+	 * that does.
+	 */
+	private void buildMember(int member, WindDirections wdir) {
+		if (memberHourData[member] == null)
+			memberHourData[member] = buildMemberHours(member);
+		if (memberDayData[member] == null)
+			memberDayData[member] = calculateMemberDaily(memberHourData[member], wdir);
+	}
+
+	private synchronized HourlySeries memberHours(int member) {
+		if (memberHourData[member] == null)
+			memberHourData[member] = buildMemberHours(member);
+		return memberHourData[member];
+	}
+
+	/**
+	 * Build the series of some members, splitting them across the common fork/join
+	 * pool if parallel members are enabled.
+	 *
+	 * @param members The indices of the members to build, 0 to 42.
+	 */
+	private synchronized void buildMembers(int[] members) {
+		if (parallelMembers)
+			ForkJoinPool.commonPool().invoke(new MemberTask(members, 0, members.length));
+		else
+			buildMembers(members, 0, members.length);
+	}
+
+	private void buildMembers(int[] members, int from, int to) {
+		WindDirections wdir = new WindDirections();
+		for (int i = from; i < to; i++)
+			buildMember(members[i], wdir);
+	}
+
+	/**
+	 * Get the 6 hourly forecast of a single member. The series is built from the
+	 * parsed ensemble files the first time it is requested.
+	 *
+	 * @param member The ID of the member, 1 to 43.
+	 * @return An unmodifiable list of hourly weather data, or null if the member wasn't kept.
+	 */
+	public synchronized List<Hour> getMemberHourData(int member) {
+		if (member < 1 || member > MEMBER_COUNT || !keepMember[member - 1])
+			return null;
+		return memberHours(member - 1).asList();
+	}
+
+	/**
+	 * Get the daily values of a single member. The series is built from the parsed
+	 * ensemble files the first time it is requested.
+	 *
+	 * @param member The ID of the member, 1 to 43.
+	 * @return An unmodifiable list of daily weather data, or null if the member wasn't kept.
+	 */
+	public synchronized List<Day> getMemberDayData(int member) {
+		if (member < 1 || member > MEMBER_COUNT || !keepMember[member - 1])
+			return null;
+		buildMember(member - 1, new WindDirections());
+		return memberDayData[member - 1].asList();
+	}
+
+	/**
+	 * Aggregate a members 6 hourly data into daily values in a single pass. Like the
+	 * percentiles a day is stored once the first hour of the following day is reached.
+	 * The members precipitation is accumulated from the start of the run so the daily
+	 * amount is the increase over the day.
+	 */
+	private static DailySeries calculateMemberDaily(HourlySeries hours, WindDirections wdir) {
+		DailySeries days = new DailySeries(hours.size() / 4 + 2);
+		if (hours.size() == 0)
+			return days;
+		int dt = hours.getDay(0);
+		double maxTemp = -Double.MAX_VALUE;
+		double minTemp = Double.MAX_VALUE;
+		double maxWind = -Double.MAX_VALUE;
+		double minWind = Double.MAX_VALUE;
+		double minRH = Double.MAX_VALUE;
+		double precip = 0.0;
+		double accPrecip = 0.0;
+		wdir.clear();
+		for (int j = 0; j < hours.size(); j++) {
+			if (hours.getDay(j) != dt) {
+				days.add(dt, minTemp, maxTemp, minRH, precip, minWind, maxWind, 0, 0, wdir.predominantAverage());
+				maxTemp = -Double.MAX_VALUE;
+				minTemp = Double.MAX_VALUE;
+				maxWind = -Double.MAX_VALUE;
+				minWind = Double.MAX_VALUE;
+				minRH = Double.MAX_VALUE;
+				precip = 0.0;
+				wdir.clear();
+				dt = hours.getDay(j);
+			}
+			double temp = hours.getTemperature(j);
+			double wind = hours.getWindSpeed(j);
+			double rh = hours.getRelativeHumidity(j);
+			if (temp < minTemp)
+				minTemp = temp;
+			if (temp > maxTemp)
+				maxTemp = temp;
+			if (wind < minWind)
+				minWind = wind;
+			if (wind > maxWind)
+				maxWind = wind;
+			if (rh < minRH)
+				minRH = rh;
+			precip += Math.max(hours.getPrecipitation(j) - accPrecip, 0.0);
+			accPrecip = Math.max(hours.getPrecipitation(j), accPrecip);
+			wdir.add(hours.getWindDirection(j));
+		}
+		return days;
+	}
+
+	/**
+	 * Builds the series for a range of a list of members, splitting the range
+	 * until only a few members are left.
+	 */
+	private class MemberTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 4;
+
+		private final int[] members;
+		private final int from;
+		private final int to;
+
+		MemberTask(int[] members, int from, int to) {
+			this.members = members;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				buildMembers(members, from, to);
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new MemberTask(members, from, mid), new MemberTask(members, mid, to));
 			}
-			String tm2 = sdf.format(dt.getTime());
-			Day d = new Day(tm2, minTemp, maxTemp, minRH, precip, minWind, maxWind, getPredominantAverageWindDir(wdir));
-			memberDayData.get(i).add(d);
 		}
 	}
 
@@ -688,8 +1324,7 @@ public class LocationWeather {
 				return false;
 		}
 
-		String dateString = new SimpleDateFormat("yyyyMMdd").format(date
-				.getTime());
+		String dateString = runDateString();
 		if (members.size() > 1) {
 			String fname, middle;
 			if (model == CUSTOM)
@@ -700,24 +1335,43 @@ public class LocationWeather {
 				middle = "_BOTH_";
 			else
 				middle = "_NCEP_";
-			fname = fl.getAbsolutePath() + "/" + dateString + time.toString()
-					+ middle + "P50_" + location + ".csv";
-			Hour.writeListToFile(fname, hour_data);
-			fname = fl2.getAbsolutePath() + "/" + dateString + time.toString()
-					+ middle + "P50_" + location + ".csv";
-			Day.writeListToFile(fname, day_data);
+			for (int k = 0; k < percentiles.length; k++) {
+				fname = fl.getAbsolutePath() + "/" + dateString + time.toString()
+						+ middle + "P" + percentiles[k] + "_" + location + ".csv";
+				Hour.writeListToFile(fname, percentile_hour_data.get(k).asList());
+				fname = fl2.getAbsolutePath() + "/" + dateString + time.toString()
+						+ middle + "P" + percentiles[k] + "_" + location + ".csv";
+				Day.writeListToFile(fname, percentile_day_data.get(k).asList());
+			}
+			for (EnsembleStatistic statistic : statistic_hour_data.keySet()) {
+				fname = fl.getAbsolutePath() + "/" + dateString + time.toString()
+						+ middle + statistic + "_" + location + ".csv";
+				Hour.writeListToFile(fname, statistic_hour_data.get(statistic).asList());
+				fname = fl2.getAbsolutePath() + "/" + dateString + time.toString()
+						+ middle + statistic + "_" + location + ".csv";
+				Day.writeListToFile(fname, statistic_day_data.get(statistic).asList());
+			}
 		}
 		if (model == CUSTOM) {
-			for (int i = 0; i < memberHourData.size(); i++) {
-				if (members.contains(i + 1)) {
+			//only build the members that are saved, members that weren't kept have no data
+			int[] saved = new int[MEMBER_COUNT];
+			int savedCount = 0;
+			for (int i = 0; i < MEMBER_COUNT; i++) {
+				if (keepMember[i] && members.contains(i + 1))
+					saved[savedCount++] = i;
+			}
+			saved = Arrays.copyOf(saved, savedCount);
+			buildMembers(saved);
+			for (int i : saved) {
+				if (memberHourData[i].size() > 0) {
 					String filename = fl.getAbsolutePath() + "/" + dateString
 							+ time.toString() + "_MEMBER_" + (i + 1) + "_"
 							+ location + ".csv";
-					Hour.writeListToFile(filename, memberHourData.get(i));
+					Hour.writeListToFile(filename, memberHourData[i].asList());
 					filename = fl2.getAbsolutePath() + "/" + dateString
 							+ time.toString() + "_MEMBER_" + (i + 1) + "_"
 							+ location + ".csv";
-					Day.writeListToFile(filename, memberDayData.get(i));
+					Day.writeListToFile(filename, memberDayData[i].asList());
 				}
 			}
 		}
@@ -725,54 +1379,12 @@ public class LocationWeather {
 		return true;
 	}
 
-	private List<Hour> buildInterpolatedList(List<Hour> original) {
-		List<Hour> hours2 = new ArrayList<Hour>(original.size());
-		SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
-		double[] temp = new double[original.size()];
-		double[] rh = new double[original.size()];
-		double[] ws = new double[original.size()];
-		double[] times = new double[original.size()];
-		for (int j = 0; j < original.size(); j++) {
-			times[j] = j * 6.0;
-			temp[j] = original.get(j).getTemperature();
-			rh[j] = original.get(j).getRelativeHumidity();
-			ws[j] = original.get(j).getWindSpeed();
-		}
-		SplineInterpolator spline = new SplineInterpolator();
-		PolynomialSplineFunction funct = spline.interpolate(times, temp);
-		PolynomialSplineFunction funcr = spline.interpolate(times, rh);
-		PolynomialSplineFunction funcw = spline.interpolate(times, ws);
-		for (int j = original.size() - 1; j > 0; j--) {
-			Hour data = original.get(j - 1);
-			int insertAt = 0;
-			Calendar c = (Calendar)data.getCalendarDate().clone();
-			for (int k = 1; k < 6; k++) {
-				c.add(Calendar.HOUR_OF_DAY, 1);
-				int hour = data.getHour() + k;
-				int dayOffset = 0;
-				while (hour < 0) {
-					hour += 24;
-					dayOffset += 1;
-				}
-				while (hour > 23) {
-					hour -= 23;
-					dayOffset -= 1;
-				}
-				double wdir = data.getWindDirection();
-				double temper = funct.value(((j - 1) * 6) + k);
-				double rher = funcr.value(((j - 1) * 6) + k);
-				double winder = funcw.value(((j - 1) * 6) + k);
-				Calendar c2 = (Calendar)c.clone();
-				c2.add(Calendar.DAY_OF_YEAR, dayOffset);
-				String tm2 = format.format(c2.getTime());
-				Hour h = new Hour(tm2, (int)data.getHour() + k, temper, rher, 0, winder, -1.0, wdir);
-				h.setInterpolated(true);
-				hours2.add(insertAt, h);
-				insertAt++;
-			}
-			hours2.add(0, data);
-		}
-		return hours2;
+	/**
+	 * Build an hourly series for a single member. Unlike the percentile data the values are
+	 * not constrained and the final forecast hour is not included.
+	 */
+	private HourlySeries buildInterpolatedList(HourlySeries original) {
+		return interpolateHourly(original, false, false);
 	}
 
 	boolean saveHourlyData(String directory) throws IOException {
@@ -784,14 +1396,14 @@ public class LocationWeather {
 		if (!fl.isDirectory())
 			throw new IOException("Path is not a directory");
 
-		String dateString = new SimpleDateFormat("yyyyMMdd").format(date.getTime());
+		String dateString = runDateString();
 		if (time == Time.MIDNIGHT)
 			dateString = dateString + "00";
 		else
 			dateString = dateString + "12";
 		if (model == GEM_DETER) {
 			String fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + "_GEM_DET.csv";
-			Hour.writeListToFile(fname, hour_data);
+			Hour.writeListToFile(fname, hour_data.asList());
 		}
 		else if (members.size() > 1) {
 			String fname, middle;
@@ -803,18 +1415,23 @@ public class LocationWeather {
 				middle = "_BOTH_";
 			else
 				middle = "_NCEP_";
-			middle += "P" + String.valueOf(percentile);
-			fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + ".csv";
-			Hour.writeListToFile(fname, hour_data);
+			for (int k = 0; k < percentiles.length; k++) {
+				fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + "P" + percentiles[k] + ".csv";
+				Hour.writeListToFile(fname, percentile_hour_data.get(k).asList());
+			}
+			for (EnsembleStatistic statistic : statistic_hour_data.keySet()) {
+				fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + statistic + ".csv";
+				Hour.writeListToFile(fname, statistic_hour_data.get(statistic).asList());
+			}
 		}
 		if (model == CUSTOM) {
-			for (int i = 0; i < memberHourData.size(); i++) {
-				if (members.contains(i + 1)) {
+			for (int i = 0; i < memberHourData.length; i++) {
+				//members that weren't kept have no data to save
+				if (members.contains(i + 1) && memberHours(i).size() > 0) {
 					String filename = fl.getAbsolutePath() + "/" + location + "_"
 							+ dateString + "_MEMBER_" + (i + 1) + ".csv";
-					List<Hour> hours = memberHourData.get(i);
-					List<Hour> hours2 = buildInterpolatedList(hours);
-					Hour.writeListToFile(filename, hours2);
+					HourlySeries hours = buildInterpolatedList(memberHours(i));
+					Hour.writeListToFile(filename, hours.asList());
 				}
 			}
 		}
@@ -831,14 +1448,14 @@ public class LocationWeather {
 		if (!fl.isDirectory())
 			throw new IOException("Path is not a directory");
 
-		String dateString = new SimpleDateFormat("yyyyMMdd").format(date.getTime());
+		String dateString = runDateString();
 		if (time == Time.MIDNIGHT)
 			dateString = dateString + "00";
 		else
 			dateString = dateString + "12";
 		if (model == GEM_DETER) {
 			String fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + "_GEM_22_DETERMINISTIC.csv";
-			Hour.writeListToFile(fname, hour_data);
+			Hour.writeListToFile(fname, hour_data.asList());
 		}
 		else if (members.size() > 1) {
 			String fname, middle;
@@ -850,9 +1467,14 @@ public class LocationWeather {
 				middle = "_BOTH_";
 			else
 				middle = "_NCEP_";
-			middle += "P" + String.valueOf(percentile);
-			fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + ".csv";
-			Hour.writeListToFile(fname, hour_data);
+			for (int k = 0; k < percentiles.length; k++) {
+				fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + "P" + percentiles[k] + ".csv";
+				Hour.writeListToFile(fname, percentile_hour_data.get(k).asList());
+			}
+			for (EnsembleStatistic statistic : statistic_hour_data.keySet()) {
+				fname = fl.getAbsolutePath() + "/" + location + "_" + dateString + middle + statistic + ".csv";
+				Hour.writeListToFile(fname, statistic_hour_data.get(statistic).asList());
+			}
 		}
 		if ((model == Model.GEM || model == Model.NCEP)) {
 			int j = -1;
@@ -867,6 +1489,8 @@ public class LocationWeather {
 			}
 			
 			for (int k = i; k <= j; k++) {
+				if (memberHours(k - 1).size() == 0)
+					continue;
 				String filename = fl.getAbsolutePath() + "/" + location + "_"
 						+ dateString;
 				
@@ -883,9 +1507,8 @@ public class LocationWeather {
 						filename += "_NCEP_" + (k) + ".csv";
 				}
 				
-				List<Hour> hours = memberHourData.get(k - 1);
-				List<Hour> hours2 = buildInterpolatedList(hours);
-				Hour.writeListToFile(filename, hours2);
+				HourlySeries hours = buildInterpolatedList(memberHours(k - 1));
+				Hour.writeListToFile(filename, hours.asList());
 			}
 		}
 
@@ -0,0 +1,145 @@
+/***********************************************************************
+ * REDapp - ParsedEnsembleCache.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import ca.weather.internal.XMLFile;
+
+/**
+ * A process wide cache of parsed NAEFS files shared by every {@link Calculator}.
+ * <p>
+ * Entries are keyed by model run, variable and location and the least recently
+ * used entries are dropped once the cache is full. Loading is single flight: if
+ * several threads ask for the same file at once only the first one downloads and
+ * parses it, the others wait on the same future.
+ */
+final class ParsedEnsembleCache {
+	static final int DEFAULT_MAX_ENTRIES = 200;
+
+	private static final ParsedEnsembleCache instance = new ParsedEnsembleCache();
+
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private final LinkedHashMap<String, CompletableFuture<XMLFile>> entries = new LinkedHashMap<String, CompletableFuture<XMLFile>>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<XMLFile>> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	private ParsedEnsembleCache() { }
+
+	static ParsedEnsembleCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Set the maximum number of parsed files to keep. A value of 0 disables the cache.
+	 * @param max The maximum number of parsed files.
+	 */
+	synchronized void setMaxEntries(int max) {
+		maxEntries = Math.max(0, max);
+		while (entries.size() > maxEntries)
+			entries.remove(entries.keySet().iterator().next());
+	}
+
+	synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Remove every parsed file from the cache.
+	 */
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Get the key for a parsed file.
+	 * @param run The model run, formatted as yyyyMMddHH.
+	 * @param type The variable stored in the file.
+	 * @param location The location the file is for.
+	 * @param horizon The last forecast hour that was parsed.
+	 */
+	static String key(String run, XMLFileType type, String location, int horizon) {
+		return run + "|" + type.toString() + "|" + location + "|" + (horizon == Integer.MAX_VALUE ? "all" : Integer.toString(horizon));
+	}
+
+	/**
+	 * Get a parsed file, loading it if it isn't already cached or being loaded.
+	 * @param key The key of the file, see {@link #key(String, XMLFileType, String, int)}.
+	 * @param loader Starts loading the file if it isn't cached. May return null if the file could not be found.
+	 * @return A future that completes with the parsed file, or with null if it could not be loaded.
+	 */
+	CompletableFuture<XMLFile> get(final String key, Supplier<CompletableFuture<XMLFile>> loader) {
+		final CompletableFuture<XMLFile> promise;
+		synchronized (this) {
+			if (maxEntries == 0) {
+				CompletableFuture<XMLFile> future = loader.get();
+				return future == null ? CompletableFuture.completedFuture((XMLFile)null) : future;
+			}
+			CompletableFuture<XMLFile> existing = entries.get(key);
+			if (existing != null)
+				return existing;
+			promise = new CompletableFuture<XMLFile>();
+			entries.put(key, promise);
+		}
+		//load outside of the lock so other files can be requested while this one downloads
+		CompletableFuture<XMLFile> future = null;
+		try {
+			future = loader.get();
+		}
+		catch (RuntimeException e) {
+			promise.completeExceptionally(e);
+		}
+		if (future == null)
+			promise.complete(null);
+		else {
+			future.whenComplete(new BiConsumer<XMLFile, Throwable>() {
+				@Override
+				public void accept(XMLFile file, Throwable t) {
+					if (t != null)
+						promise.completeExceptionally(t);
+					else
+						promise.complete(file);
+				}
+			});
+		}
+		//don't keep failures around so that the next request will try again
+		promise.whenComplete(new BiConsumer<XMLFile, Throwable>() {
+			@Override
+			public void accept(XMLFile file, Throwable t) {
+				if (t != null || file == null || !file.isValid()) {
+					synchronized (ParsedEnsembleCache.this) {
+						if (entries.get(key) == promise)
+							entries.remove(key);
+					}
+				}
+			}
+		});
+		return promise;
+	}
+}
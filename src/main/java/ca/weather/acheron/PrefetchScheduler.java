@@ -0,0 +1,227 @@
+/***********************************************************************
+ * REDapp - PrefetchScheduler.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ca.weather.forecast.Time;
+import ca.weather.internal.DaemonThreadFactory;
+
+/**
+ * Loads the ensemble files for a watchlist of locations in the background as soon
+ * as each model run is published, so that the first calculations after a run
+ * don't have to wait for the downloads.
+ * <p>
+ * The scheduler periodically checks the most recent 00Z and 12Z runs. A run is
+ * considered available once the files for the first location can be loaded, at
+ * which point the files for every other location are loaded as well. The files
+ * are kept in the parsed file cache (see {@link Calculator#setParsedCacheSize(int)})
+ * and in the disk cache if one is set (see {@link Calculator#setCacheDir(String)}),
+ * both of which should be large enough to hold the whole watchlist.
+ */
+public class PrefetchScheduler {
+	private final List<String> locations = new ArrayList<String>();
+	private final Set<String> completedRuns = new HashSet<String>();
+	private int pollMinutes = 10;
+	private int forecastHorizon = Integer.MAX_VALUE;
+	private ScheduledExecutorService service = null;
+
+	/**
+	 * @param locs The locations to prefetch, in the format CITY PV CA.
+	 */
+	public PrefetchScheduler(String ... locs) {
+		setLocations(locs);
+	}
+
+	/**
+	 * Set the locations to prefetch. Runs that have already been loaded are not loaded
+	 * again for new locations.
+	 * @param locs The locations, in the format CITY PV CA.
+	 */
+	public synchronized void setLocations(String ... locs) {
+		locations.clear();
+		for (String s : locs)
+			locations.add(s);
+	}
+
+	public synchronized void addLocation(String loc) {
+		locations.add(loc);
+	}
+
+	/**
+	 * Get the locations that are prefetched.
+	 * @return An unmodifiable copy of the locations.
+	 */
+	public synchronized List<String> getLocations() {
+		return Collections.unmodifiableList(new ArrayList<String>(locations));
+	}
+
+	/**
+	 * Set the last forecast hour to load. This must match the horizon used by the
+	 * calculators that should use the prefetched files, see
+	 * {@link Calculator#setForecastHorizon(int)}.
+	 * @param hours The last forecast hour, or 0 to load every forecast.
+	 */
+	public synchronized void setForecastHorizon(int hours) {
+		forecastHorizon = hours <= 0 ? Integer.MAX_VALUE : hours;
+	}
+
+	public synchronized int getForecastHorizon() {
+		return forecastHorizon == Integer.MAX_VALUE ? 0 : forecastHorizon;
+	}
+
+	/**
+	 * Set how often to check for a new model run. Takes effect the next time the
+	 * scheduler is started. Defaults to 10 minutes.
+	 * @param minutes The number of minutes between checks.
+	 */
+	public synchronized void setPollInterval(int minutes) {
+		pollMinutes = Math.max(1, minutes);
+	}
+
+	public synchronized int getPollInterval() {
+		return pollMinutes;
+	}
+
+	/**
+	 * Start checking for new model runs in the background. The first check is made immediately.
+	 */
+	public synchronized void start() {
+		if (service != null)
+			return;
+		service = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("acheron-prefetch"));
+		service.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				}
+				catch (RuntimeException e) {
+					//keep the schedule running, the next check will try again
+					e.printStackTrace();
+				}
+			}
+		}, 0, pollMinutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Stop checking for new model runs.
+	 */
+	public synchronized void stop() {
+		if (service != null) {
+			service.shutdownNow();
+			service = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return service != null;
+	}
+
+	/**
+	 * Has every file for a model run been loaded.
+	 * @param date The date of the model run.
+	 * @param time The time of the model run.
+	 */
+	public synchronized boolean isLoaded(Calendar date, Time time) {
+		return completedRuns.contains(runName(date, time));
+	}
+
+	/**
+	 * Check the most recent model runs and load any that have been published but
+	 * not yet loaded.
+	 */
+	void poll() {
+		Calendar latest = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		Time latestTime = latest.get(Calendar.HOUR_OF_DAY) < 12 ? Time.MIDNIGHT : Time.NOON;
+		Calendar previous = (Calendar)latest.clone();
+		Time previousTime;
+		if (latestTime == Time.NOON)
+			previousTime = Time.MIDNIGHT;
+		else {
+			previous.add(Calendar.DATE, -1);
+			previousTime = Time.NOON;
+		}
+		Set<String> current = new HashSet<String>();
+		current.add(runName(latest, latestTime));
+		current.add(runName(previous, previousTime));
+		synchronized (this) {
+			completedRuns.retainAll(current);
+		}
+		//the newest run is usually the one that isn't loaded yet, if it hasn't been published
+		//make sure the previous run is loaded instead
+		if (!isLoaded(latest, latestTime) && !prefetch(latest, latestTime) && !isLoaded(previous, previousTime))
+			prefetch(previous, previousTime);
+	}
+
+	/**
+	 * Load the files for every location for a model run, waiting until they have loaded.
+	 * @param date The date of the model run, in UTC.
+	 * @param time The time of the model run.
+	 * @return True if the run has been published and every file was loaded.
+	 */
+	public boolean prefetch(Calendar date, Time time) {
+		List<String> locs = getLocations();
+		if (locs.isEmpty())
+			return false;
+		int horizon;
+		synchronized (this) {
+			horizon = forecastHorizon;
+		}
+		//the first location tells us if the run has been published yet
+		if (!prefetch(locs.get(0), horizon, date, time).join().booleanValue())
+			return false;
+		List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>(locs.size() - 1);
+		for (int i = 1; i < locs.size(); i++)
+			futures.add(prefetch(locs.get(i), horizon, date, time));
+		boolean loaded = true;
+		for (CompletableFuture<Boolean> future : futures) {
+			if (!future.join().booleanValue())
+				loaded = false;
+		}
+		if (loaded) {
+			synchronized (this) {
+				completedRuns.add(runName(date, time));
+			}
+		}
+		return loaded;
+	}
+
+	private static CompletableFuture<Boolean> prefetch(String location, int horizon, Calendar date, Time time) {
+		LocationWeather weather = new LocationWeather(location);
+		weather.setForecastHorizon(horizon);
+		return weather.prefetch((Calendar)date.clone(), time);
+	}
+
+	private static String runName(Calendar date, Time time) {
+		return String.format("%04d%02d%02d%s", date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1,
+				date.get(Calendar.DAY_OF_MONTH), time.toString());
+	}
+}
@@ -0,0 +1,147 @@
+/***********************************************************************
+ * REDapp - ProductSpec.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+/**
+ * Describes which parts of the ensemble a {@link Calculator} needs to produce.
+ * Variables and members that aren't needed are never downloaded, parsed, or
+ * stored.
+ * <p>
+ * Temperature, relative humidity and wind speed are always needed to calculate
+ * the percentiles. Precipitation and wind direction can be left out, in which
+ * case they are reported as 0. The default specification includes every variable,
+ * keeps the series for every member and calculates no ensemble statistics.
+ */
+public class ProductSpec {
+	/**
+	 * Which individual member series to keep.
+	 */
+	public enum MemberOutput {
+		/**
+		 * Don't keep any member series, only the percentiles are calculated.
+		 */
+		NONE,
+		/**
+		 * Keep the members that were used to calculate the percentiles.
+		 */
+		SELECTED,
+		/**
+		 * Keep every member in the ensemble files, needed to save the members of a
+		 * different model than the one that was calculated.
+		 */
+		ALL
+	}
+
+	private static final Set<XMLFileType> REQUIRED = EnumSet.of(XMLFileType.TEMPERATURE,
+			XMLFileType.RELATIVE_HUMIDITY, XMLFileType.WIND_SPEED);
+
+	private final EnumSet<XMLFileType> variables = EnumSet.allOf(XMLFileType.class);
+	private MemberOutput memberOutput = MemberOutput.ALL;
+	private final EnumSet<EnsembleStatistic> statistics = EnumSet.noneOf(EnsembleStatistic.class);
+	private double confidenceLevel = 95;
+
+	/**
+	 * Set the variables to load.
+	 * @param types The variables. Temperature, relative humidity and wind speed must be included.
+	 */
+	public void setVariables(XMLFileType ... types) {
+		EnumSet<XMLFileType> set = EnumSet.noneOf(XMLFileType.class);
+		for (XMLFileType type : types)
+			set.add(type);
+		if (!set.containsAll(REQUIRED))
+			throw new IllegalArgumentException("Temperature, relative humidity and wind speed are always required");
+		variables.clear();
+		variables.addAll(set);
+	}
+
+	/**
+	 * Get the variables to load.
+	 * @return A copy of the set of variables.
+	 */
+	public Set<XMLFileType> getVariables() {
+		return EnumSet.copyOf(variables);
+	}
+
+	public boolean isVariableIncluded(XMLFileType type) {
+		return variables.contains(type);
+	}
+
+	/**
+	 * Set which member series to keep. Member series are only needed to save the
+	 * individual members of a custom, GEM or NCEP calculation.
+	 * @param output Which members to keep.
+	 */
+	public void setMemberOutput(MemberOutput output) {
+		if (output == null)
+			throw new IllegalArgumentException("The member output can't be null");
+		memberOutput = output;
+	}
+
+	public MemberOutput getMemberOutput() {
+		return memberOutput;
+	}
+
+	/**
+	 * Set the statistics of the requested members to calculate along with the
+	 * percentiles. They are calculated while the ensemble files are read so they
+	 * don't need the member series to be kept.
+	 * @param stats The statistics, none to only calculate the percentiles.
+	 */
+	public void setStatistics(EnsembleStatistic ... stats) {
+		statistics.clear();
+		for (EnsembleStatistic stat : stats)
+			statistics.add(stat);
+	}
+
+	/**
+	 * Get the statistics to calculate.
+	 * @return A copy of the set of statistics.
+	 */
+	public Set<EnsembleStatistic> getStatistics() {
+		return EnumSet.copyOf(statistics);
+	}
+
+	/**
+	 * Set the confidence level of the confidence interval statistics.
+	 * @param level The confidence level as a percentage, greater than 0 and less than 100.
+	 */
+	public void setConfidenceLevel(double level) {
+		if (!(level > 0 && level < 100))
+			throw new IllegalArgumentException("The confidence level must be between 0 and 100");
+		confidenceLevel = level;
+	}
+
+	public double getConfidenceLevel() {
+		return confidenceLevel;
+	}
+
+	/**
+	 * Get the number of standard errors either side of the mean that the
+	 * confidence interval covers, 1.96 for the default 95% level.
+	 */
+	double getConfidenceZ() {
+		return new NormalDistribution(null, 0, 1).inverseCumulativeProbability(0.5 + confidenceLevel / 200.0);
+	}
+}
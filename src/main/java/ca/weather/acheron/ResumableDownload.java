@@ -0,0 +1,187 @@
+/***********************************************************************
+ * REDapp - ResumableDownload.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.weather.acheron.ConditionalDownloader.HttpStatusException;
+
+/**
+ * A download over HTTP that can be resumed after it fails part way through.
+ * <p>
+ * The body is written to a temporary file that is kept between attempts. If an
+ * attempt fails after some of the file was received, the next attempt asks for
+ * only the remaining bytes with a Range request. If-Range is sent with the
+ * validator of the first response so that the server sends the whole file again
+ * if it changed in the meantime.
+ */
+final class ResumableDownload {
+	private static final String PART_SUFFIX = ".part";
+
+	private final URL url;
+	private Path part = null;
+	private String validator = null;
+	private long expectedLength = -1;
+
+	ResumableDownload(URL url) {
+		this.url = url;
+	}
+
+	URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * Try to finish the download.
+	 * @return The downloaded file. The caller is responsible for deleting it.
+	 * @throws IOException If the download failed, any data that was received is
+	 *             kept for the next attempt.
+	 */
+	File attempt() throws IOException {
+		if (part == null)
+			part = Files.createTempFile("naefs", "_" + fileName() + PART_SUFFIX);
+		long have = Files.size(part);
+		Map<String, String> headers = new HashMap<String, String>();
+		//resuming is only safe if we know which version of the file we have part of
+		if (have > 0 && validator != null) {
+			headers.put("Range", "bytes=" + have + "-");
+			headers.put("If-Range", validator);
+		}
+		else
+			have = 0;
+		HttpURLConnection connection = ConditionalDownloader.connect(url, headers);
+		try {
+			int code = connection.getResponseCode();
+			boolean append;
+			if (code == HttpURLConnection.HTTP_PARTIAL && have > 0) {
+				String range = connection.getHeaderField("Content-Range");
+				long total = rangeTotal(range, have, connection.getContentLengthLong());
+				if (total < 0) {
+					validator = null;
+					throw new IOException("Unexpected range " + range + " for " + url);
+				}
+				append = true;
+				expectedLength = total;
+			}
+			else if (code == HttpURLConnection.HTTP_OK) {
+				append = false;
+				validator = validatorOf(connection);
+				expectedLength = connection.getContentLengthLong();
+			}
+			else {
+				if (code == 416)
+					validator = null;
+				throw new HttpStatusException(code, connection.getURL());
+			}
+			try (InputStream in = connection.getInputStream();
+					OutputStream out = append ? Files.newOutputStream(part, StandardOpenOption.APPEND)
+							: Files.newOutputStream(part, StandardOpenOption.TRUNCATE_EXISTING)) {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) >= 0)
+					out.write(buffer, 0, read);
+			}
+			long received = Files.size(part);
+			if (expectedLength >= 0 && received != expectedLength)
+				throw new IOException("Received " + received + " of " + expectedLength + " bytes for " + url);
+			//drop the suffix so the file keeps the extension it has on the server
+			String name = part.getFileName().toString();
+			Path done = part.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length()));
+			Files.move(part, done, StandardCopyOption.REPLACE_EXISTING);
+			part = null;
+			return done.toFile();
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	private String fileName() {
+		String path = url.getPath();
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Remove any partially downloaded data.
+	 */
+	void discard() {
+		if (part != null) {
+			try {
+				Files.deleteIfExists(part);
+			}
+			catch (IOException e) {
+			}
+			part = null;
+		}
+	}
+
+	/**
+	 * Get the length of the whole file from a Content-Range header. The range has to
+	 * start where the part ends and run to the end of the file.
+	 * @param range The Content-Range header, formatted as "bytes first-last/total".
+	 * @param have The number of bytes that were already received.
+	 * @param length The Content-Length of the response, or -1 if it wasn't sent.
+	 * @return The length of the file, or -1 if the range doesn't continue the part.
+	 */
+	static long rangeTotal(String range, long have, long length) {
+		if (range == null || !range.startsWith("bytes "))
+			return -1;
+		int dash = range.indexOf('-');
+		int slash = range.indexOf('/');
+		if (dash < 0 || slash < dash)
+			return -1;
+		long first;
+		long last;
+		long total;
+		try {
+			first = Long.parseLong(range.substring(6, dash).trim());
+			last = Long.parseLong(range.substring(dash + 1, slash).trim());
+			String t = range.substring(slash + 1).trim();
+			total = t.equals("*") ? last + 1 : Long.parseLong(t);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+		if (first != have || last != total - 1 || (length >= 0 && length != last - first + 1))
+			return -1;
+		return total;
+	}
+
+	/**
+	 * Get the value to send as If-Range. Weak entity tags can't be used for range requests.
+	 */
+	private static String validatorOf(HttpURLConnection connection) {
+		String etag = connection.getHeaderField("ETag");
+		if (etag != null && !etag.startsWith("W/"))
+			return etag;
+		return connection.getHeaderField("Last-Modified");
+	}
+}
@@ -0,0 +1,269 @@
+/***********************************************************************
+ * REDapp - StationCatalog.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.acheron;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import ca.weather.acheron.Calculator.LocationSmall;
+import ca.weather.forecast.Province;
+
+/**
+ * An immutable, indexed list of the NAEFS forecast locations.
+ * <p>
+ * Locations can be looked up by name, by province, or by distance from a point.
+ * Distance lookups use a k-d tree built on the position of each location as a
+ * point on the unit sphere, so there are no special cases near the poles or
+ * across the antimeridian and the nearest locations are found without looking
+ * at every location.
+ */
+public final class StationCatalog {
+	/**
+	 * The mean radius of the earth in kilometres.
+	 */
+	public static final double EARTH_RADIUS = 6371.0088;
+
+	private final List<LocationSmall> stations;
+	private final Map<String, LocationSmall> byName = new HashMap<String, LocationSmall>();
+	private final Map<Province, List<LocationSmall>> byProvince = new EnumMap<Province, List<LocationSmall>>(Province.class);
+	private final Node root;
+
+	/**
+	 * Build a catalog from a list of locations.
+	 * @param locations The locations, see {@link Calculator#getLocations()}.
+	 */
+	public StationCatalog(List<LocationSmall> locations) {
+		List<LocationSmall> list = new ArrayList<LocationSmall>();
+		if (locations != null)
+			list.addAll(locations);
+		stations = Collections.unmodifiableList(list);
+
+		Map<Province, List<LocationSmall>> provinces = new EnumMap<Province, List<LocationSmall>>(Province.class);
+		List<Node> nodes = new ArrayList<Node>(list.size());
+		for (LocationSmall station : list) {
+			if (station.locationName == null)
+				continue;
+			String key = normalize(station.locationName);
+			if (!byName.containsKey(key))
+				byName.put(key, station);
+			Province province = provinceOf(station.locationName);
+			if (province != null) {
+				List<LocationSmall> inProvince = provinces.get(province);
+				if (inProvince == null) {
+					inProvince = new ArrayList<LocationSmall>();
+					provinces.put(province, inProvince);
+				}
+				inProvince.add(station);
+			}
+			if (!Double.isNaN(station.latitude) && !Double.isNaN(station.longitude))
+				nodes.add(new Node(station));
+		}
+		for (Map.Entry<Province, List<LocationSmall>> entry : provinces.entrySet())
+			byProvince.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+		root = build(nodes, 0, nodes.size(), 0);
+	}
+
+	/**
+	 * Get every location in the catalog.
+	 * @return An unmodifiable list of the locations.
+	 */
+	public List<LocationSmall> getStations() {
+		return stations;
+	}
+
+	public int size() {
+		return stations.size();
+	}
+
+	/**
+	 * Get the locations in a province.
+	 * @param province The province.
+	 * @return An unmodifiable list of the locations in the province.
+	 */
+	public List<LocationSmall> getStations(Province province) {
+		List<LocationSmall> list = byProvince.get(province);
+		if (list == null)
+			return Collections.emptyList();
+		return list;
+	}
+
+	/**
+	 * Find a location by name. Case is ignored and underscores are treated as spaces.
+	 * @param name The name of the location in the format CITY PV CA.
+	 * @return The location, or null if there isn't one with the given name.
+	 */
+	public LocationSmall getStation(String name) {
+		if (name == null)
+			return null;
+		return byName.get(normalize(name));
+	}
+
+	/**
+	 * Find the location closest to a point.
+	 * @param latitude The latitude of the point in degrees.
+	 * @param longitude The longitude of the point in degrees.
+	 * @return The closest location, or null if the catalog is empty.
+	 */
+	public LocationSmall nearest(double latitude, double longitude) {
+		List<LocationSmall> list = nearest(latitude, longitude, 1);
+		if (list.isEmpty())
+			return null;
+		return list.get(0);
+	}
+
+	/**
+	 * Find the locations closest to a point.
+	 * @param latitude The latitude of the point in degrees.
+	 * @param longitude The longitude of the point in degrees.
+	 * @param count The number of locations to find.
+	 * @return Up to count locations, closest first.
+	 */
+	public List<LocationSmall> nearest(double latitude, double longitude, int count) {
+		if (count <= 0 || root == null)
+			return new ArrayList<LocationSmall>();
+		double[] point = toUnitVector(latitude, longitude);
+		//the farthest of the closest locations found so far is at the head
+		PriorityQueue<Match> found = new PriorityQueue<Match>(count + 1, new Comparator<Match>() {
+			@Override
+			public int compare(Match o1, Match o2) {
+				return Double.compare(o2.distance, o1.distance);
+			}
+		});
+		search(root, point, count, found);
+		List<LocationSmall> list = new ArrayList<LocationSmall>(found.size());
+		while (!found.isEmpty())
+			list.add(found.poll().station);
+		Collections.reverse(list);
+		return list;
+	}
+
+	/**
+	 * Calculate the great circle distance between two points.
+	 * @return The distance in kilometres.
+	 */
+	public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double dlat = Math.toRadians(latitude2 - latitude1);
+		double dlon = Math.toRadians(longitude2 - longitude1);
+		double a = Math.sin(dlat / 2) * Math.sin(dlat / 2) + Math.cos(Math.toRadians(latitude1))
+				* Math.cos(Math.toRadians(latitude2)) * Math.sin(dlon / 2) * Math.sin(dlon / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Get the province from a location name in the format CITY PV CA.
+	 */
+	static Province provinceOf(String name) {
+		String[] parts = name.trim().split("[ _]+");
+		if (parts.length < 3 || !parts[parts.length - 1].equalsIgnoreCase("CA"))
+			return null;
+		String abbv = parts[parts.length - 2];
+		for (Province p : Province.values()) {
+			if (p.abbreviation().equalsIgnoreCase(abbv))
+				return p;
+		}
+		return null;
+	}
+
+	private static String normalize(String name) {
+		return name.trim().replace('_', ' ').toUpperCase(Locale.ROOT);
+	}
+
+	private static double[] toUnitVector(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		return new double[] { Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat) };
+	}
+
+	/**
+	 * Build a balanced tree from part of a list by splitting at the median along each axis in turn.
+	 */
+	private static Node build(List<Node> nodes, int from, int to, final int axis) {
+		if (from >= to)
+			return null;
+		Collections.sort(nodes.subList(from, to), new Comparator<Node>() {
+			@Override
+			public int compare(Node o1, Node o2) {
+				return Double.compare(o1.point[axis], o2.point[axis]);
+			}
+		});
+		int middle = (from + to) >>> 1;
+		Node node = nodes.get(middle);
+		node.axis = axis;
+		node.left = build(nodes, from, middle, (axis + 1) % 3);
+		node.right = build(nodes, middle + 1, to, (axis + 1) % 3);
+		return node;
+	}
+
+	/**
+	 * Search a subtree for locations closer than the ones already found. Distances are
+	 * compared as squared chord lengths, which have the same order as great circle distances.
+	 */
+	private static void search(Node node, double[] point, int count, PriorityQueue<Match> found) {
+		if (node == null)
+			return;
+		double dx = point[0] - node.point[0];
+		double dy = point[1] - node.point[1];
+		double dz = point[2] - node.point[2];
+		double distance = dx * dx + dy * dy + dz * dz;
+		if (found.size() < count)
+			found.add(new Match(node.station, distance));
+		else if (distance < found.peek().distance) {
+			found.poll();
+			found.add(new Match(node.station, distance));
+		}
+		double split = point[node.axis] - node.point[node.axis];
+		Node near = split < 0 ? node.left : node.right;
+		Node far = split < 0 ? node.right : node.left;
+		search(near, point, count, found);
+		//only look on the other side of the split if it could hold something closer
+		if (found.size() < count || split * split < found.peek().distance)
+			search(far, point, count, found);
+	}
+
+	private static final class Node {
+		private final LocationSmall station;
+		private final double[] point;
+		private int axis;
+		private Node left;
+		private Node right;
+
+		private Node(LocationSmall station) {
+			this.station = station;
+			this.point = toUnitVector(station.latitude, station.longitude);
+		}
+	}
+
+	private static final class Match {
+		private final LocationSmall station;
+		private final double distance;
+
+		private Match(LocationSmall station, double distance) {
+			this.station = station;
+			this.distance = distance;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/***********************************************************************
+ * REDapp - DaemonThreadFactory.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.internal;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the weather worker pools so that
+ * unfinished work will not keep the virtual machine alive.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+	private final String prefix;
+	
+	/**
+	 * @param name The name of the pool, used as a prefix for the thread names.
+	 */
+	public DaemonThreadFactory(String name) {
+		prefix = name + "-";
+	}
+	
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	}
+}
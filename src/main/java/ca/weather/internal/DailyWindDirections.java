@@ -0,0 +1,99 @@
+/***********************************************************************
+ * REDapp - WindDirections.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import java.util.Arrays;
+
+/**
+ * Bins wind directions by day and keeps the predominant average of each day,
+ * see {@link WindDirections}. A day is stored once the directions of a later
+ * day start being added, so the last day is never stored.
+ */
+public final class DailyWindDirections {
+	private final WindDirections directions = new WindDirections();
+	private double[] days;
+	private int size = 0;
+	private int day = Integer.MIN_VALUE;
+	
+	/**
+	 * @param capacity The expected number of days.
+	 */
+	public DailyWindDirections(int capacity) {
+		days = new double[Math.max(capacity, 1)];
+	}
+	
+	/**
+	 * Remove all days.
+	 */
+	public void clear() {
+		directions.clear();
+		size = 0;
+		day = Integer.MIN_VALUE;
+	}
+	
+	/**
+	 * Set the day that added directions belong to. If it is different from the
+	 * current day the current day is stored and the directions are cleared.
+	 * 
+	 * @param day The day, any value that changes when the day does.
+	 */
+	public void setDay(int day) {
+		if (day == this.day)
+			return;
+		if (this.day != Integer.MIN_VALUE) {
+			if (size == days.length)
+				days = Arrays.copyOf(days, size * 2);
+			days[size++] = directions.predominantAverage();
+		}
+		directions.clear();
+		this.day = day;
+	}
+	
+	/**
+	 * Add a slice of directions to the current day.
+	 * 
+	 * @param values The directions in degrees.
+	 * @param offset The index of the first direction to add.
+	 * @param count The number of directions to add.
+	 */
+	public void add(double[] values, int offset, int count) {
+		directions.add(values, offset, count);
+	}
+	
+	/**
+	 * Get the number of stored days.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the predominant direction of a stored day.
+	 * 
+	 * @param index The index of the day, starting from the first day that was set.
+	 * @return The direction in degrees or -1 if no directions were added that day.
+	 */
+	public double get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException();
+		return days[index];
+	}
+}
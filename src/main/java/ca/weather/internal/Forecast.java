@@ -20,7 +20,8 @@
 package ca.weather.internal;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -29,12 +30,18 @@ import java.util.List;
  *
  */
 public class Forecast {
-	private HashMap<Integer, Double> map;
+	/**
+	 * The number of member IDs to reserve space for, NAEFS uses IDs 1 through 43.
+	 */
+	private static final int DEFAULT_CAPACITY = 44;
+	private double[] values;
+	private BitSet present;
 	private int forecast_hour;
 	private String valid_time;
 	
 	public Forecast(int hour, String time) {
-		map = new HashMap<Integer, Double>();
+		values = new double[DEFAULT_CAPACITY];
+		present = new BitSet(DEFAULT_CAPACITY);
 		forecast_hour = hour;
 		valid_time = time;
 	}
@@ -48,32 +55,77 @@ public class Forecast {
 	}
 	
 	public void put(int modelId, double value) {
-		map.put(Integer.valueOf(modelId), Double.valueOf(value));
+		if (modelId < 0)
+			throw new IndexOutOfBoundsException();
+		if (modelId >= values.length)
+			values = Arrays.copyOf(values, Math.max(modelId + 1, values.length * 2));
+		values[modelId] = value;
+		present.set(modelId);
 	}
 	
 	public double get(int modelId) throws ModelDoesNotExistException {
-		Integer i = Integer.valueOf(modelId);
-		if (map.containsKey(i))
-			return map.get(i).doubleValue();
+		if (modelExists(modelId))
+			return values[modelId];
 		throw new ModelDoesNotExistException(modelId);
 	}
 	
+	/**
+	 * Get the value for a model without checking that it exists.
+	 * @param modelId The ID of the model.
+	 * @param defaultValue The value to return if the model doesn't exist.
+	 * @return The models value, or defaultValue if the model doesn't exist.
+	 */
+	public double get(int modelId, double defaultValue) {
+		if (modelExists(modelId))
+			return values[modelId];
+		return defaultValue;
+	}
+	
 	public boolean modelExists(int modelId) {
-		return map.containsKey(Integer.valueOf(modelId));
+		return modelId >= 0 && present.get(modelId);
 	}
 	
 	public List<Double> getValuesForMembers(List<Integer> memberIds) {
 		List<Double> retval = new ArrayList<Double>();
 		for (int i : memberIds) {
 			if (modelExists(i)) {
-				retval.add(map.get(i));
+				retval.add(values[i]);
 			}
 		}
 		return retval;
 	}
 	
+	/**
+	 * Copy the values for a set of members into an existing array.
+	 * @param memberIds The IDs of the members to copy.
+	 * @param out The array to copy the values into, must be at least as long as memberIds.
+	 * @return The number of values copied into out. Members that don't exist are skipped.
+	 */
+	public int getValuesForMembers(int[] memberIds, double[] out) {
+		int count = 0;
+		for (int i : memberIds) {
+			if (modelExists(i))
+				out[count++] = values[i];
+		}
+		return count;
+	}
+	
+	/**
+	 * Count how many of a set of members have values.
+	 * @param memberIds The IDs of the members to check.
+	 * @return The number of members that exist.
+	 */
+	public int countMembers(int[] memberIds) {
+		int count = 0;
+		for (int i : memberIds) {
+			if (modelExists(i))
+				count++;
+		}
+		return count;
+	}
+	
 	public int getSize() {
-		return map.size();
+		return present.cardinality();
 	}
 	
 	public static class ModelDoesNotExistException extends Exception {
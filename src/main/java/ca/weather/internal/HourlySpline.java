@@ -0,0 +1,101 @@
+/***********************************************************************
+ * REDapp - HourlySpline.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.internal;
+
+/**
+ * Natural cubic spline interpolation of evenly spaced samples, used to turn the
+ * 6 hourly ensemble forecasts into hourly values. This is the same spline that
+ * commons-math's SplineInterpolator builds, specialised for evenly spaced knots
+ * and written straight into a caller supplied buffer.
+ */
+public final class HourlySpline {
+	
+	/**
+	 * Get the number of values produced by {@link #interpolate(double[], int, int, double[], double[])}.
+	 * 
+	 * @param count The number of samples.
+	 * @param step The number of output values per sample interval.
+	 */
+	public static int outputLength(int count, int step) {
+		if (count < 1)
+			return 0;
+		return (count - 1) * step + 1;
+	}
+	
+	/**
+	 * Interpolate evenly spaced samples. Output value {@code i * step + j} is the spline
+	 * evaluated {@code j / step} of the way from sample i to sample i + 1, so every
+	 * step-th output value is one of the original samples.
+	 * 
+	 * @param values The samples.
+	 * @param count The number of valid samples at the start of values.
+	 * @param step The number of output values per sample interval, 6 for 6 hourly data.
+	 * @param out The array to store the interpolated values in, at least {@link #outputLength(int, int)} long.
+	 * @param work Scratch space, at least 2 * count long.
+	 */
+	public static void interpolate(double[] values, int count, int step, double[] out, double[] work) {
+		if (count < 1)
+			return;
+		if (count < 3) {
+			//a natural spline through two points is a straight line
+			for (int i = 0; i < count - 1; i++) {
+				for (int j = 0; j < step; j++)
+					out[i * step + j] = values[i] + (values[i + 1] - values[i]) * j / step;
+			}
+			out[(count - 1) * step] = values[count - 1];
+			return;
+		}
+		//solve M[i-1] + 4M[i] + M[i+1] = 6(y[i+1] - 2y[i] + y[i-1]) for the second derivatives
+		//with M[0] = M[n-1] = 0, using the Thomas algorithm. Distances are measured in
+		//sample intervals so the knot spacing is 1.
+		int last = count - 1;
+		double[] m = work;
+		int c = count;
+		m[0] = 0.0;
+		m[last] = 0.0;
+		work[c] = 0.0;
+		double prev = 0.0;
+		for (int i = 1; i < last; i++) {
+			double denom = 4.0 - work[c + i - 1];
+			work[c + i] = 1.0 / denom;
+			double rhs = 6.0 * (values[i + 1] - 2.0 * values[i] + values[i - 1]);
+			prev = (rhs - prev) / denom;
+			m[i] = prev;
+		}
+		for (int i = last - 2; i >= 1; i--)
+			m[i] -= work[c + i] * m[i + 1];
+		for (int i = 0; i < last; i++) {
+			double y0 = values[i];
+			double y1 = values[i + 1];
+			double m0 = m[i];
+			double m1 = m[i + 1];
+			out[i * step] = y0;
+			for (int j = 1; j < step; j++) {
+				double t = ((double)j) / step;
+				double u = 1.0 - t;
+				out[i * step + j] = (m0 * u * u * u + m1 * t * t * t) / 6.0
+						+ (y0 - m0 / 6.0) * u + (y1 - m1 / 6.0) * t;
+			}
+		}
+		out[last * step] = values[last];
+	}
+	
+	private HourlySpline() { }
+}
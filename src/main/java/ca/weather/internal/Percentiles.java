@@ -0,0 +1,200 @@
+/***********************************************************************
+ * REDapp - Percentiles.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+package ca.weather.internal;
+
+/**
+ * Percentile calculations over primitive arrays using selection instead of
+ * sorting. The values arrays are partially reordered by each call.
+ */
+public final class Percentiles {
+	
+	/**
+	 * Get the fractional index of a percentile in a sorted list of values.
+	 * 
+	 * @param count The number of values.
+	 * @param percentile The percentile, in [0, 100].
+	 * @return The fractional index of the percentile.
+	 */
+	public static double index(int count, double percentile) {
+		return (count - 1) * (percentile / 100.0);
+	}
+	
+	/**
+	 * Find the value that would be at a given index if the values were sorted.
+	 * On return the values before k are all less than or equal to it and the
+	 * values after k are all greater than or equal to it. NaN values are ordered
+	 * after every number, as {@link java.util.Arrays#sort(double[])} does.
+	 * 
+	 * @param values The values to search.
+	 * @param count The number of valid entries at the start of values.
+	 * @param k The index to find.
+	 * @return The k-th smallest value.
+	 */
+	public static double select(double[] values, int count, int k) {
+		int numbers = moveNaN(values, count);
+		if (k >= numbers)
+			return Double.NaN;
+		return select(values, 0, numbers - 1, k);
+	}
+	
+	/**
+	 * Interpolate the value at a fractional index in the sorted values.
+	 * 
+	 * @param values The values, which do not need to be sorted.
+	 * @param count The number of valid entries at the start of values.
+	 * @param index The fractional index, see {@link #index(int, double)}.
+	 * @return The interpolated value, or -1 if there are no values.
+	 */
+	public static double valueAt(double[] values, int count, double index) {
+		if (count < 1)
+			return -1;
+		index = Math.min(Math.max(index, 0.0), count - 1);
+		int index_low = (int)Math.floor(index);
+		int index_high = (int)Math.ceil(index);
+		double i = index - index_low;
+		int numbers = moveNaN(values, count);
+		double low = index_low < numbers ? select(values, 0, numbers - 1, index_low) : Double.NaN;
+		if (index_high == index_low)
+			return low;
+		if (index_high >= numbers)
+			return Double.NaN;
+		//after selecting the low value the next highest value is the minimum of the upper partition
+		double high = values[index_high];
+		for (int j = index_high + 1; j < numbers; j++) {
+			if (values[j] < high)
+				high = values[j];
+		}
+		return ((1 - i) * low) + (i * high);
+	}
+	
+	/**
+	 * Interpolate the values at several fractional indices in one pass. Each selection
+	 * only searches the part of the array left unsorted by the previous one.
+	 * 
+	 * @param values The values, which do not need to be sorted.
+	 * @param count The number of valid entries at the start of values.
+	 * @param indices The fractional indices, which must be in ascending order.
+	 * @param out The array to store the interpolated values in, at least as long as indices.
+	 */
+	public static void valuesAt(double[] values, int count, double[] indices, double[] out) {
+		if (count < 1) {
+			for (int i = 0; i < indices.length; i++)
+				out[i] = -1;
+			return;
+		}
+		int numbers = moveNaN(values, count);
+		int left = 0;
+		for (int n = 0; n < indices.length; n++) {
+			double index = Math.min(Math.max(indices[n], 0.0), count - 1);
+			int index_low = (int)Math.floor(index);
+			int index_high = (int)Math.ceil(index);
+			double i = index - index_low;
+			double low = index_low < numbers ? select(values, Math.min(left, index_low), numbers - 1, index_low) : Double.NaN;
+			double high = low;
+			if (index_high != index_low) {
+				high = index_high < numbers ? select(values, index_high, numbers - 1, index_high) : Double.NaN;
+				left = index_high;
+			}
+			else
+				left = index_low;
+			out[n] = ((1 - i) * low) + (i * high);
+		}
+	}
+	
+	/**
+	 * Interpolate a percentile of a set of values.
+	 * 
+	 * @param values The values, which do not need to be sorted.
+	 * @param count The number of valid entries at the start of values.
+	 * @param percentile The percentile, in [0, 100].
+	 * @return The interpolated percentile value, or -1 if there are no values.
+	 */
+	public static double percentile(double[] values, int count, double percentile) {
+		return valueAt(values, count, index(count, percentile));
+	}
+	
+	/**
+	 * Move any NaN values after the numbers, the comparisons in the selection
+	 * would otherwise leave them anywhere.
+	 * 
+	 * @return The number of values that are not NaN.
+	 */
+	private static int moveNaN(double[] values, int count) {
+		int numbers = count;
+		for (int i = count - 1; i >= 0; i--) {
+			if (Double.isNaN(values[i]))
+				swap(values, i, --numbers);
+		}
+		return numbers;
+	}
+	
+	/**
+	 * Quickselect using a median of three pivot and insertion sort for small ranges.
+	 */
+	private static double select(double[] values, int left, int right, int k) {
+		while (right - left > 16) {
+			int mid = (left + right) >>> 1;
+			if (values[mid] < values[left])
+				swap(values, mid, left);
+			if (values[right] < values[left])
+				swap(values, right, left);
+			if (values[right] < values[mid])
+				swap(values, right, mid);
+			double pivot = values[mid];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot)
+					i++;
+				while (values[j] > pivot)
+					j--;
+				if (i <= j) {
+					swap(values, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				right = j;
+			else if (k >= i)
+				left = i;
+			else
+				return values[k];
+		}
+		for (int i = left + 1; i <= right; i++) {
+			double v = values[i];
+			int j = i - 1;
+			while (j >= left && values[j] > v) {
+				values[j + 1] = values[j];
+				j--;
+			}
+			values[j + 1] = v;
+		}
+		return values[k];
+	}
+	
+	private static void swap(double[] values, int i, int j) {
+		double tmp = values[i];
+		values[i] = values[j];
+		values[j] = tmp;
+	}
+	
+	private Percentiles() { }
+}
@@ -0,0 +1,141 @@
+/***********************************************************************
+ * REDapp - RunningStatistics.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+/**
+ * Streaming mean, variance and range of a set of values. The mean and variance
+ * are updated with Welford's method so the values only need to be seen once and
+ * are never stored. An instance can be cleared and reused without allocating.
+ */
+public final class RunningStatistics {
+	private int count = 0;
+	private double mean = 0;
+	private double m2 = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	
+	/**
+	 * Remove all values.
+	 */
+	public void clear() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+	}
+	
+	/**
+	 * Add a value.
+	 */
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (count == 1) {
+			min = value;
+			max = value;
+		}
+		else {
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+	}
+	
+	/**
+	 * Add a slice of values.
+	 * 
+	 * @param values The values.
+	 * @param offset The index of the first value to add.
+	 * @param count The number of values to add.
+	 */
+	public void add(double[] values, int offset, int count) {
+		for (int i = offset; i < offset + count; i++)
+			add(values[i]);
+	}
+	
+	/**
+	 * Get the number of values that have been added.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Get the mean of the values, NaN if there are none.
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+	
+	/**
+	 * Get the population variance of the values, NaN if there are none.
+	 */
+	public double getVariance() {
+		return count == 0 ? Double.NaN : m2 / count;
+	}
+	
+	/**
+	 * Get the population standard deviation of the values, NaN if there are none.
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+	
+	/**
+	 * Get the smallest value, NaN if there are none.
+	 */
+	public double getMin() {
+		return min;
+	}
+	
+	/**
+	 * Get the largest value, NaN if there are none.
+	 */
+	public double getMax() {
+		return max;
+	}
+	
+	/**
+	 * Get the lower bound of a confidence interval for the mean.
+	 * 
+	 * @param z The number of standard errors below the mean, 1.96 for a 95% interval.
+	 */
+	public double getLowerConfidenceBound(double z) {
+		return getMean() - z * getStandardError();
+	}
+	
+	/**
+	 * Get the upper bound of a confidence interval for the mean.
+	 * 
+	 * @param z The number of standard errors above the mean, 1.96 for a 95% interval.
+	 */
+	public double getUpperConfidenceBound(double z) {
+		return getMean() + z * getStandardError();
+	}
+	
+	private double getStandardError() {
+		return getStandardDeviation() / Math.sqrt((double) count);
+	}
+}
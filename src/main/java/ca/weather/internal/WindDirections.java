@@ -0,0 +1,116 @@
+/***********************************************************************
+ * REDapp - WindDirections.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+/**
+ * Finds the predominant wind direction of a set of directions. The directions
+ * are binned into the eight 45&deg; compass sectors and the result is the mean
+ * of the sector holding the most directions. Only a count and a running sum are
+ * kept for each sector so an instance can be cleared and reused without
+ * allocating.
+ */
+public final class WindDirections {
+	private static final int SECTORS = 8;
+	
+	private final int[] counts = new int[SECTORS];
+	private final double[] sums = new double[SECTORS];
+	private int size = 0;
+	
+	/**
+	 * Remove all directions.
+	 */
+	public void clear() {
+		for (int i = 0; i < SECTORS; i++) {
+			counts[i] = 0;
+			sums[i] = 0;
+		}
+		size = 0;
+	}
+	
+	/**
+	 * Get the number of directions that have been added.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Add a direction in degrees.
+	 */
+	public void add(double dir) {
+		int sector = 0;
+		while (sector < SECTORS && !(dir <= sector * 45.0 + 22.5))
+			sector++;
+		//directions past the last sector wrap around into north
+		if (sector == SECTORS) {
+			sector = 0;
+			dir -= 360.0;
+		}
+		counts[sector]++;
+		sums[sector] += dir;
+		size++;
+	}
+	
+	/**
+	 * Add a slice of directions.
+	 * 
+	 * @param values The directions in degrees.
+	 * @param offset The index of the first direction to add.
+	 * @param count The number of directions to add.
+	 */
+	public void add(double[] values, int offset, int count) {
+		for (int i = offset; i < offset + count; i++)
+			add(values[i]);
+	}
+	
+	/**
+	 * Get the mean direction of the sector holding the most directions. Ties go
+	 * to the first sector clockwise from north.
+	 * 
+	 * @return The direction in degrees or -1 if no directions have been added.
+	 */
+	public double predominantAverage() {
+		if (size < 1)
+			return -1;
+		int m = 0;
+		for (int i = 1; i < SECTORS; i++) {
+			if (counts[i] > counts[m])
+				m = i;
+		}
+		double avg = sums[m] / ((double) counts[m]);
+		if (avg < 0.0)
+			avg = avg + 360.0;
+		return avg;
+	}
+	
+	/**
+	 * Get the predominant direction of a slice of directions, see {@link #predominantAverage()}.
+	 * 
+	 * @param values The directions in degrees.
+	 * @param offset The index of the first direction.
+	 * @param count The number of directions.
+	 */
+	public double predominantAverage(double[] values, int offset, int count) {
+		clear();
+		add(values, offset, count);
+		return predominantAverage();
+	}
+}
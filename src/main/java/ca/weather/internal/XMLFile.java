@@ -19,22 +19,25 @@
 
 package ca.weather.internal;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+import ca.weather.acheron.BZipExtractor;
 import ca.weather.acheron.XMLFileType;
 
 /**
@@ -42,7 +45,10 @@ import ca.weather.acheron.XMLFileType;
  * 
  * @author Travis
  */
-public class XMLFile extends Thread {
+public class XMLFile {
+	private static ExecutorService parsePool = null;
+	private static int parsePoolSize = Runtime.getRuntime().availableProcessors();
+	private static final XMLInputFactory inputFactory = createInputFactory();
 	private String path;
 	private Location loc;
 	private String beginTime;
@@ -54,18 +60,91 @@ public class XMLFile extends Thread {
 	private boolean initialized = false;
 	private boolean valid = false;
 	private XMLFileType type;
+	private final int maxForecastHour;
 	
-	public XMLFile(String path, XMLFileType type) {
+	private XMLFile(String path, XMLFileType type, int maxForecastHour) {
 		this.path = path;
 		this.type = type;
+		this.maxForecastHour = maxForecastHour;
 		models = new ArrayList<Model>();
 		forecasts = new ArrayList<Forecast>();
-		
-		this.start();
 	}
 	
-	@Override
-	public void run() {
+	/**
+	 * Parse an XML weather file on the calling thread. Files ending in .bz2 are
+	 * decompressed as they are parsed.
+	 * 
+	 * @param path The path to the XML file or BZip2 compressed XML file.
+	 * @param type The type of weather data stored in the file.
+	 * @return The parsed file. If the file could not be read {@link #isValid()} will be false.
+	 */
+	public static XMLFile parse(String path, XMLFileType type) {
+		return parse(path, type, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Parse the start of an XML weather file on the calling thread. Reading stops at the
+	 * first forecast past the given hour so the rest of the file is never decompressed.
+	 * 
+	 * @param path The path to the XML file or BZip2 compressed XML file.
+	 * @param type The type of weather data stored in the file.
+	 * @param maxForecastHour The last forecast hour to read.
+	 * @return The parsed file. If the file could not be read {@link #isValid()} will be false.
+	 */
+	public static XMLFile parse(String path, XMLFileType type, int maxForecastHour) {
+		XMLFile file = new XMLFile(path, type, maxForecastHour);
+		file.load();
+		return file;
+	}
+	
+	/**
+	 * Parse an XML weather file on the shared parse pool. Files ending in .bz2 are
+	 * decompressed as they are parsed.
+	 * 
+	 * @param path The path to the XML file or BZip2 compressed XML file.
+	 * @param type The type of weather data stored in the file.
+	 * @return A future that will complete with the parsed file.
+	 */
+	public static CompletableFuture<XMLFile> parseAsync(String path, XMLFileType type) {
+		return parseAsync(path, type, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Parse the start of an XML weather file on the shared parse pool.
+	 * 
+	 * @param path The path to the XML file or BZip2 compressed XML file.
+	 * @param type The type of weather data stored in the file.
+	 * @param maxForecastHour The last forecast hour to read.
+	 * @return A future that will complete with the parsed file.
+	 * @see #parse(String, XMLFileType, int)
+	 */
+	public static CompletableFuture<XMLFile> parseAsync(final String path, final XMLFileType type, final int maxForecastHour) {
+		return CompletableFuture.supplyAsync(new Supplier<XMLFile>() {
+			@Override
+			public XMLFile get() {
+				return parse(path, type, maxForecastHour);
+			}
+		}, getParsePool());
+	}
+	
+	/**
+	 * Set the number of threads in the shared parse pool. Must be called before the
+	 * first file is parsed asynchronously, later calls have no effect.
+	 * 
+	 * @param size The maximum number of files that will be parsed at the same time.
+	 */
+	public static synchronized void setParsePoolSize(int size) {
+		if (parsePool == null)
+			parsePoolSize = Math.max(1, size);
+	}
+	
+	private static synchronized ExecutorService getParsePool() {
+		if (parsePool == null)
+			parsePool = Executors.newFixedThreadPool(parsePoolSize, new DaemonThreadFactory("acheron-xml-parse"));
+		return parsePool;
+	}
+	
+	private void load() {
 		File fl = new File(path);
 		if (!fl.exists())
 			return;
@@ -76,160 +155,158 @@ public class XMLFile extends Thread {
 	}
 	
 	private boolean parseXmlFile() {
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		DocumentBuilder db;
-		Document dom;
-		try {
-			db = dbf.newDocumentBuilder();
-			dom = db.parse(path);
-		} catch (ParserConfigurationException e) {
-			return false;
-		} catch (SAXException e) {
-			return false;
-		} catch (IOException e) {
+		try (InputStream in = openStream()) {
+			return parseStream(in);
+		}
+		catch (IOException e) {
 			return false;
 		}
-		return parseDocument(dom);
 	}
 	
-	private boolean parseDocument(Document dom) {
+	private InputStream openStream() throws IOException {
+		if (path.endsWith(".bz2"))
+			return BZipExtractor.open(path);
+		return new BufferedInputStream(new FileInputStream(path));
+	}
+	
+	/**
+	 * Read the file as a stream of elements, filling in the header values and
+	 * forecasts as each element is reached instead of building a DOM.
+	 */
+	private boolean parseStream(InputStream in) {
+		XMLStreamReader reader = null;
+		boolean foundHeader = false;
+		boolean inHeader = false;
+		boolean inModelDescription = false;
+		Forecast forecast = null;
 		try {
-			Element docEle = dom.getDocumentElement();
-			NodeList nl = docEle.getElementsByTagName("header");
-			if (nl == null || nl.getLength() == 0)
-				return false;
-			Element header = (Element)nl.item(0);
-			Node n = header.getFirstChild();
-			while (n != null) {
-				Element el;
-				try {
-					el = (Element)n;
+			reader = inputFactory.createXMLStreamReader(in);
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (forecast != null)
+						parseForecastValue(reader, forecast);
+					else if (name.equals("forecast")) {
+						int hour = Integer.parseInt(getAttribute(reader, "forecast_hour"));
+						//forecasts are in order so everything after this is past the horizon too
+						if (hour > maxForecastHour)
+							break;
+						forecast = new Forecast(hour, getAttribute(reader, "valid_time"));
+					}
+					else if (name.equals("header")) {
+						foundHeader = true;
+						inHeader = true;
+					}
+					else if (inModelDescription) {
+						if (name.equals("model"))
+							parseModel(reader);
+					}
+					else if (inHeader) {
+						if (name.equals("location"))
+							parseLocation(reader);
+						else if (name.equals("valid-begin-time"))
+							beginTime = reader.getElementText();
+						else if (name.equals("valid-end-time"))
+							endTime = reader.getElementText();
+						else if (name.equals("forecast_element"))
+							parseForecastElement(reader);
+						else if (name.equals("creation_date"))
+							creationDate = reader.getElementText();
+						else if (name.equals("model_description"))
+							inModelDescription = true;
+					}
 				}
-				catch (Exception e) {
-					n = n.getNextSibling();
-					continue;
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if (forecast != null && name.equals("forecast")) {
+						forecasts.add(forecast);
+						forecast = null;
+					}
+					else if (name.equals("model_description"))
+						inModelDescription = false;
+					else if (name.equals("header"))
+						inHeader = false;
 				}
-				if (el.getTagName().equals("location"))
-					parseLocation(el);
-				else if (el.getTagName().equals("valid-begin-time"))
-					beginTime = getValue(el);
-				else if (el.getTagName().equals("valid-end-time"))
-					endTime = getValue(el);
-				else if (el.getTagName().equals("forecast_element"))
-					parseForecastElement(el);
-				else if (el.getTagName().equals("creation_date"))
-					creationDate = getValue(el);
-				else if (el.getTagName().equals("model_description"))
-					parseModelDescription(el);
-				
-				n = n.getNextSibling();
 			}
-			nl = docEle.getElementsByTagName("forecast");
-			for (int i = 0; i < nl.getLength(); i++) {
-				Element el = null;
+		}
+		catch (XMLStreamException e) {
+			return false;
+		}
+		catch (RuntimeException e) {
+			return false;
+		}
+		finally {
+			if (reader != null) {
 				try {
-					el = (Element)nl.item(i);
-				}
-				catch (Exception e) {
+					reader.close();
 				}
-				if (el != null) {
-					parseForecast(el);
+				catch (XMLStreamException e) {
 				}
 			}
 		}
-		catch (Exception e) {
-			return false;
-		}
-		return true;
+		return foundHeader;
 	}
 	
-	private void parseLocation(Element el) {
-		String description = el.getAttribute("description");
-		String country = el.getAttribute("pays_country");
-		String province = el.getAttribute("province_state");
+	private void parseLocation(XMLStreamReader reader) {
+		String description = getAttribute(reader, "description");
+		String country = getAttribute(reader, "pays_country");
+		String province = getAttribute(reader, "province_state");
 		loc = new Location(description, country, province);
 	}
 	
-	private void parseForecastElement(Element el) {
-		String code = el.getAttribute("code");
-		String title_fr = el.getAttribute("titre_francais");
-		String unit_fr = el.getAttribute("unite_francaise");
-		String title_en = el.getAttribute("title_english");
-		String unit_en = el.getAttribute("unit_english");
+	private void parseForecastElement(XMLStreamReader reader) {
+		String code = getAttribute(reader, "code");
+		String title_fr = getAttribute(reader, "titre_francais");
+		String unit_fr = getAttribute(reader, "unite_francaise");
+		String title_en = getAttribute(reader, "title_english");
+		String unit_en = getAttribute(reader, "unit_english");
 		element = new ForecastElement(code, title_fr, unit_fr, title_en, unit_en);
 	}
 	
-	private void parseModelDescription(Element el) {
-		Node n = el.getFirstChild();
-		while (n != null) {
-			Element ele = null;
-			if (n instanceof Element) {
-				try {
-					ele = (Element)n;
-				}
-				catch (Exception e) {
-					e.printStackTrace();
-				}
-				if (ele != null) {
-					if (ele.getTagName().equals("model")) {
-						String id = ele.getAttribute("id");
-						String model = ele.getAttribute("model");
-						String member = ele.getAttribute("member");
-						String centre = ele.getAttribute("center");
-						String domain = ele.getAttribute("domain");
-						String data_type = ele.getAttribute("data_type");
-						String member_type = ele.getAttribute("member_type");
-						int idi = Integer.parseInt(id);
-						Model m = new Model(idi, model, member, centre, domain, data_type, member_type);
-						models.add(m);
-					}
-				}
-			}
-			n = n.getNextSibling();
-		}
+	private void parseModel(XMLStreamReader reader) {
+		String id = getAttribute(reader, "id");
+		String model = getAttribute(reader, "model");
+		String member = getAttribute(reader, "member");
+		String centre = getAttribute(reader, "center");
+		String domain = getAttribute(reader, "domain");
+		String data_type = getAttribute(reader, "data_type");
+		String member_type = getAttribute(reader, "member_type");
+		int idi = Integer.parseInt(id);
+		Model m = new Model(idi, model, member, centre, domain, data_type, member_type);
+		models.add(m);
 	}
 	
-	private void parseForecast(Element el) {
-		String forecast_hour = el.getAttribute("forecast_hour");
-		String valid_time = el.getAttribute("valid_time");
-		Forecast f = new Forecast(Integer.parseInt(forecast_hour), valid_time);
-		Node n = el.getFirstChild();
-		while (n != null) {
-			Element ele = null;
-			try {
-				ele = (Element)n;
-			}
-			catch (Exception e) {
-			}
-			if (ele != null) {
-				String modelId = ele.getAttribute("id");
-				int modelIdi = Integer.parseInt(modelId);
-				String value = getValue(ele);
-				if (value == null)
-					continue;
-				double d = Double.parseDouble(value);
-				f.put(modelIdi, d);
-			}
-			n = n.getNextSibling();
-		}
-		forecasts.add(f);
+	/**
+	 * Read a single members value from inside of a forecast element.
+	 */
+	private void parseForecastValue(XMLStreamReader reader, Forecast forecast) throws XMLStreamException {
+		String modelId = getAttribute(reader, "id");
+		String value = reader.getElementText().trim();
+		if (value.length() == 0)
+			return;
+		forecast.put(Integer.parseInt(modelId), Double.parseDouble(value));
 	}
 	
-	private String getValue(Element el) {
-		String retval = null;
-		if (el.hasChildNodes()) {
-			Node nn = el.getFirstChild();
-			while (nn != null) {
-				if ((retval = nn.getNodeValue()) != null)
-					break;
-				nn = nn.getNextSibling();
-			}
-		}
-		else
-			retval = el.getNodeValue();
+	/**
+	 * Get the value of an attribute on the current element, or an empty string if
+	 * the attribute doesn't exist.
+	 */
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		String retval = reader.getAttributeValue(null, name);
+		if (retval == null)
+			return "";
 		return retval;
 	}
 	
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+	
 	public String getPath() {
 		return path;
 	}
@@ -0,0 +1,167 @@
+/***********************************************************************
+ * REDapp - EnsembleFetcherTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.weather.acheron.ConditionalDownloader.HttpStatusException;
+
+/**
+ * Tests which failed downloads {@link EnsembleFetcher} retries, against a local HTTP server.
+ */
+public class EnsembleFetcherTest {
+	private static final byte[] BODY = "ensemble".getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+	private EnsembleFetcher fetcher;
+	private final AtomicInteger requests = new AtomicInteger();
+	/**
+	 * The status of the first failed requests, after that the body is sent.
+	 */
+	private volatile int status;
+	private volatile int failures;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		fetcher = EnsembleFetcher.getInstance();
+		fetcher.setMaxAttempts(3);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Connection", "close");
+				if (requests.incrementAndGet() <= failures) {
+					exchange.sendResponseHeaders(status, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, BODY.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(BODY);
+				}
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		fetcher.setMaxAttempts(EnsembleFetcher.DEFAULT_MAX_ATTEMPTS);
+		server.stop(0);
+	}
+
+	private URL url() throws IOException {
+		return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/run/file.xml");
+	}
+
+	/**
+	 * Download a file from a server that always fails and get the status the download failed with.
+	 */
+	private int fetchFailure(int code) throws Exception {
+		status = code;
+		failures = Integer.MAX_VALUE;
+		requests.set(0);
+		try {
+			fetcher.fetch(url()).get(30, TimeUnit.SECONDS);
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof HttpStatusException);
+			return ((HttpStatusException)e.getCause()).getCode();
+		}
+		fail("status " + code + " wasn't reported");
+		return 0;
+	}
+
+	@Test
+	public void testIsRetryable() {
+		for (int code : new int[] { 500, 502, 503, 504, 408, 429, 416 })
+			assertTrue(EnsembleFetcher.isRetryable(new HttpStatusException(code, null)), Integer.toString(code));
+		for (int code : new int[] { 400, 401, 403, 404, 410 })
+			assertFalse(EnsembleFetcher.isRetryable(new HttpStatusException(code, null)), Integer.toString(code));
+		assertFalse(EnsembleFetcher.isRetryable(new FileNotFoundException()));
+		assertTrue(EnsembleFetcher.isRetryable(new IOException("connection reset")));
+	}
+
+	@Test
+	public void testRetryDelay() {
+		for (int i = 0; i < 100; i++) {
+			long delay = 500;
+			for (int attempt = 1; attempt < 20; attempt++) {
+				long wait = EnsembleFetcher.retryDelay(attempt);
+				assertTrue(wait >= delay / 2 && wait <= delay, attempt + ": " + wait);
+				delay = Math.min(8000, delay * 2);
+			}
+		}
+	}
+
+	@Test
+	public void testServerErrorsRetried() throws Exception {
+		for (int code : new int[] { 503, 408, 429 }) {
+			assertEquals(code, fetchFailure(code));
+			assertEquals(3, requests.get(), Integer.toString(code));
+		}
+	}
+
+	@Test
+	public void testNotFoundNotRetried() throws Exception {
+		assertEquals(404, fetchFailure(404));
+		assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void testRetrySucceeds() throws Exception {
+		status = 500;
+		failures = 2;
+		File file = fetcher.fetch(url()).get(30, TimeUnit.SECONDS);
+		try {
+			assertArrayEquals(BODY, Files.readAllBytes(file.toPath()));
+		}
+		finally {
+			Files.delete(file.toPath());
+		}
+		assertEquals(3, requests.get());
+	}
+}
@@ -0,0 +1,234 @@
+/***********************************************************************
+ * REDapp - EnsembleFileCacheTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the eviction of {@link EnsembleFileCache} in a temporary directory.
+ */
+public class EnsembleFileCacheTest {
+	private Path root;
+	private Path downloads;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("ensemblecache");
+		downloads = Files.createTempDirectory("ensembledownloads");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		EnsembleFileCache.configure(null, EnsembleFileCache.DEFAULT_MAX_BYTES, EnsembleFileCache.DEFAULT_RETENTION_HOURS);
+		deleteAll(root);
+		deleteAll(downloads);
+	}
+
+	private static void deleteAll(Path path) throws IOException {
+		if (!Files.exists(path))
+			return;
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * The name of a model run a number of hours ago.
+	 */
+	private static String run(int hoursAgo) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHH");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(System.currentTimeMillis() - hoursAgo * 3600000L));
+	}
+
+	private File download(String name, int size) throws IOException {
+		Path path = downloads.resolve(name);
+		Files.write(path, new byte[size]);
+		return path.toFile();
+	}
+
+	private EnsembleFileCache cache(long bytes, int hours) {
+		EnsembleFileCache.configure(root.toString(), bytes, hours);
+		return EnsembleFileCache.getInstance();
+	}
+
+	@Test
+	public void testPutAndGet() throws IOException {
+		EnsembleFileCache cache = cache(1000, 48);
+		String run = run(1);
+		File cached = cache.put(run, "a.xml.bz2", download("a", 10));
+		assertEquals(root.resolve(run).resolve("a.xml.bz2").toFile(), cached);
+		assertTrue(cached.isFile());
+		assertFalse(Files.exists(downloads.resolve("a")));
+		cache.release(cached);
+		File found = cache.get(run, "a.xml.bz2");
+		assertEquals(cached, found);
+		cache.release(found);
+		assertNull(cache.get(run, "b.xml.bz2"));
+	}
+
+	@Test
+	public void testPinnedFileIsNotEvicted() throws IOException {
+		EnsembleFileCache cache = cache(10, 48);
+		String run = run(1);
+		File a = cache.put(run, "a", download("a", 8));
+		//a is still being read so it survives the cache going over its size
+		File b = cache.put(run, "b", download("b", 8));
+		assertTrue(a.isFile());
+		assertTrue(b.isFile());
+		cache.release(a);
+		cache.release(b);
+		//a file returned by get is pinned as well
+		File found = cache.get(run, "a");
+		assertNotNull(found);
+		File c = cache.put(run, "c", download("c", 8));
+		assertTrue(found.isFile());
+		assertFalse(b.exists());
+		//once released it is the least recently used file
+		cache.release(found);
+		cache.release(c);
+		File d = cache.put(run, "d", download("d", 1));
+		assertFalse(a.exists());
+		assertTrue(c.isFile());
+		assertTrue(d.isFile());
+		assertNull(cache.get(run, "a"));
+		cache.release(d);
+	}
+
+	@Test
+	public void testReleaseCountsReaders() throws IOException {
+		EnsembleFileCache cache = cache(10, 48);
+		String run = run(1);
+		File a = cache.put(run, "a", download("a", 8));
+		File again = cache.get(run, "a");
+		cache.release(a);
+		//one reader is left
+		File b = cache.put(run, "b", download("b", 8));
+		assertTrue(again.isFile());
+		cache.release(again);
+		cache.release(b);
+		cache.put(run, "c", download("c", 1));
+		assertFalse(again.exists());
+	}
+
+	@Test
+	public void testUndeletableEntryStaysIndexed() throws IOException {
+		EnsembleFileCache cache = cache(10, 48);
+		String run = run(1);
+		File a = cache.put(run, "a", download("a", 5));
+		cache.release(a);
+		//a non-empty directory in place of the file can't be deleted
+		Files.delete(a.toPath());
+		Files.createDirectory(a.toPath());
+		Files.write(a.toPath().resolve("locked"), new byte[1]);
+		File b = cache.put(run, "b", download("b", 10));
+		cache.release(b);
+		assertTrue(a.exists());
+		File found = cache.get(run, "a");
+		assertEquals(a, found);
+		cache.release(found);
+		//the next eviction retries it, it is now the least recently used file after b
+		deleteAll(a.toPath());
+		Files.write(a.toPath(), new byte[5]);
+		File c = cache.put(run, "c", download("c", 10));
+		cache.release(c);
+		assertFalse(a.exists());
+		assertNull(cache.get(run, "a"));
+	}
+
+	@Test
+	public void testExpiredRun() throws IOException {
+		EnsembleFileCache cache = cache(1000, 48);
+		String run = run(49);
+		File a = cache.put(run, "a", download("a", 5));
+		cache.release(a);
+		assertNull(cache.get(run, "a"));
+		assertFalse(a.exists());
+		//the empty run directory is removed as well
+		assertFalse(Files.exists(root.resolve(run)));
+		String current = run(47);
+		File b = cache.put(current, "b", download("b", 5));
+		cache.release(b);
+		File found = cache.get(current, "b");
+		assertNotNull(found);
+		cache.release(found);
+	}
+
+	@Test
+	public void testLoadIndexesExistingFiles() throws IOException {
+		String run = run(2);
+		Path dir = Files.createDirectories(root.resolve(run));
+		Path oldest = Files.write(dir.resolve("oldest"), new byte[4]);
+		Path middle = Files.write(dir.resolve("middle"), new byte[4]);
+		Path newest = Files.write(dir.resolve("newest"), new byte[4]);
+		long now = System.currentTimeMillis();
+		oldest.toFile().setLastModified(now - 30000);
+		middle.toFile().setLastModified(now - 20000);
+		newest.toFile().setLastModified(now - 10000);
+		//files outside a run directory and expired runs are not served
+		Files.write(root.resolve("stray"), new byte[1]);
+		String expired = run(100);
+		Path old = Files.write(Files.createDirectories(root.resolve(expired)).resolve("expired"), new byte[1]);
+		old.toFile().setLastModified(now - 40000);
+
+		EnsembleFileCache cache = cache(8, 48);
+		File found = cache.get(run, "newest");
+		assertNotNull(found);
+		cache.release(found);
+		found = cache.get(run, "middle");
+		assertNotNull(found);
+		cache.release(found);
+		//loading went over the maximum size so the least recently modified file was removed
+		assertFalse(Files.exists(oldest));
+		assertNull(cache.get(run, "oldest"));
+		assertFalse(Files.exists(old));
+		assertNull(cache.get(expired, "expired"));
+	}
+}
@@ -0,0 +1,185 @@
+/***********************************************************************
+ * REDapp - LocationSnapshotTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import ca.weather.acheron.Calculator.LocationSmall;
+
+/**
+ * Tests writing and reading a {@link LocationSnapshot} in a temporary directory.
+ */
+public class LocationSnapshotTest {
+	private Path dir;
+	private Path xml;
+	private Path snapshot;
+	private List<LocationSmall> locations;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("locationsnapshot");
+		xml = dir.resolve("locations.xml");
+		Files.write(xml, "<locations/>".getBytes(StandardCharsets.UTF_8));
+		snapshot = dir.resolve(LocationSnapshot.FILE_NAME);
+		locations = new ArrayList<LocationSmall>();
+		locations.add(location("Calgary_AB_CA", "CA", 51.05, -114.07, 1045));
+		locations.add(location("Montréal_QC_CA", "CA", 45.5, -73.57, 36));
+		locations.add(location(null, null, -90, 180, -0.5));
+		locations.add(location("", "US", 0, 0, 0));
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		for (Path path : Files.newDirectoryStream(dir))
+			Files.delete(path);
+		Files.delete(dir);
+	}
+
+	private static LocationSmall location(String name, String country, double latitude, double longitude, double elevation) {
+		LocationSmall location = new LocationSmall();
+		location.locationName = name;
+		location.country = country;
+		location.latitude = latitude;
+		location.longitude = longitude;
+		location.elevation = elevation;
+		return location;
+	}
+
+	private void assertLocations(List<LocationSmall> expected, List<LocationSmall> actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).locationName, actual.get(i).locationName);
+			assertEquals(expected.get(i).country, actual.get(i).country);
+			assertEquals(Double.doubleToLongBits(expected.get(i).latitude), Double.doubleToLongBits(actual.get(i).latitude));
+			assertEquals(Double.doubleToLongBits(expected.get(i).longitude), Double.doubleToLongBits(actual.get(i).longitude));
+			assertEquals(Double.doubleToLongBits(expected.get(i).elevation), Double.doubleToLongBits(actual.get(i).elevation));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		assertLocations(locations, LocationSnapshot.read(snapshot, xml));
+		//without the XML file the snapshot is used as is
+		assertLocations(locations, LocationSnapshot.read(snapshot, dir.resolve("missing.xml")));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		LocationSnapshot.write(snapshot, xml, new ArrayList<LocationSmall>());
+		assertEquals(0, LocationSnapshot.read(snapshot, xml).size());
+	}
+
+	@Test
+	public void testReplace() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		assertNotNull(LocationSnapshot.read(snapshot, xml));
+		//replacing a snapshot that was just read has to work on every platform
+		List<LocationSmall> replaced = locations.subList(0, 1);
+		LocationSnapshot.write(snapshot, xml, replaced);
+		assertLocations(replaced, LocationSnapshot.read(snapshot, xml));
+	}
+
+	@Test
+	public void testMissing() {
+		assertNull(LocationSnapshot.read(snapshot, xml));
+		assertNull(LocationSnapshot.read(dir, xml));
+	}
+
+	@Test
+	public void testStaleTime() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		Files.setLastModifiedTime(xml, FileTime.fromMillis(Files.getLastModifiedTime(xml).toMillis() - 60000));
+		assertNull(LocationSnapshot.read(snapshot, xml));
+	}
+
+	@Test
+	public void testStaleSize() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		FileTime modified = Files.getLastModifiedTime(xml);
+		Files.write(xml, "<locations></locations>".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(xml, modified);
+		assertNull(LocationSnapshot.read(snapshot, xml));
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		byte[] bytes = Files.readAllBytes(snapshot);
+		for (int length = 0; length < bytes.length; length++) {
+			Files.write(snapshot, Arrays.copyOf(bytes, length));
+			assertNull(LocationSnapshot.read(snapshot, xml), Integer.toString(length));
+		}
+	}
+
+	@Test
+	public void testDamaged() throws IOException {
+		LocationSnapshot.write(snapshot, xml, locations);
+		byte[] bytes = Files.readAllBytes(snapshot);
+		byte[] damaged = bytes.clone();
+		damaged[0] = 'X';
+		Files.write(snapshot, damaged);
+		assertNull(LocationSnapshot.read(snapshot, xml));
+
+		damaged = bytes.clone();
+		damaged[11] = 2;
+		Files.write(snapshot, damaged);
+		assertNull(LocationSnapshot.read(snapshot, xml));
+
+		//a count far larger than the file
+		damaged = bytes.clone();
+		damaged[28] = 0x7F;
+		Files.write(snapshot, damaged);
+		assertNull(LocationSnapshot.read(snapshot, xml));
+	}
+
+	@Test
+	public void testTooLong() throws IOException {
+		char[] name = new char[0xFFFF];
+		Arrays.fill(name, 'a');
+		final List<LocationSmall> list = Arrays.asList(location(new String(name), "CA", 0, 0, 0));
+		assertThrows(IOException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable {
+				LocationSnapshot.write(snapshot, xml, list);
+			}
+		});
+		assertNull(LocationSnapshot.read(snapshot, xml));
+	}
+}
@@ -0,0 +1,262 @@
+/***********************************************************************
+ * REDapp - ParsedEnsembleCacheTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.weather.internal.XMLFile;
+
+/**
+ * Tests the single flight loading and eviction of {@link ParsedEnsembleCache}.
+ */
+public class ParsedEnsembleCacheTest {
+	private ParsedEnsembleCache cache;
+	private Path xml;
+	private XMLFile valid;
+	private XMLFile invalid;
+
+	/**
+	 * A loader that counts how many times it was asked to load a file.
+	 */
+	private static class Loader implements Supplier<CompletableFuture<XMLFile>> {
+		final AtomicInteger calls = new AtomicInteger();
+		final CompletableFuture<XMLFile> result;
+
+		Loader(CompletableFuture<XMLFile> result) {
+			this.result = result;
+		}
+
+		@Override
+		public CompletableFuture<XMLFile> get() {
+			calls.incrementAndGet();
+			return result;
+		}
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		cache = ParsedEnsembleCache.getInstance();
+		cache.clear();
+		xml = Files.createTempFile("parsedcache", ".xml");
+		Files.write(xml, "<forecast_file><header></header></forecast_file>".getBytes(StandardCharsets.UTF_8));
+		valid = XMLFile.parse(xml.toString(), XMLFileType.TEMPERATURE);
+		invalid = XMLFile.parse(xml.toString() + ".missing", XMLFileType.TEMPERATURE);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		cache.setMaxEntries(ParsedEnsembleCache.DEFAULT_MAX_ENTRIES);
+		cache.clear();
+		Files.deleteIfExists(xml);
+	}
+
+	private Loader loaded() {
+		return new Loader(CompletableFuture.completedFuture(valid));
+	}
+
+	@Test
+	public void testFiles() {
+		assertTrue(valid.isValid());
+		assertFalse(invalid.isValid());
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final Loader loader = new Loader(new CompletableFuture<XMLFile>());
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<CompletableFuture<XMLFile>> futures = new ArrayList<CompletableFuture<XMLFile>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					CompletableFuture<XMLFile> future = cache.get("a", loader);
+					synchronized (futures) {
+						futures.add(future);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(8, futures.size());
+		assertEquals(1, loader.calls.get());
+		for (CompletableFuture<XMLFile> future : futures)
+			assertFalse(future.isDone());
+
+		loader.result.complete(valid);
+		for (CompletableFuture<XMLFile> future : futures)
+			assertSame(valid, future.get());
+
+		//the loaded file stays cached
+		Loader again = loaded();
+		assertSame(valid, cache.get("a", again).get());
+		assertEquals(0, again.calls.get());
+	}
+
+	@Test
+	public void testFailedLoadIsRetried() throws Exception {
+		CompletableFuture<XMLFile> failed = new CompletableFuture<XMLFile>();
+		failed.completeExceptionally(new IOException("download failed"));
+		assertRetried(new Loader(failed));
+		assertRetried(new Loader(null));
+		assertRetried(new Loader(CompletableFuture.completedFuture((XMLFile)null)));
+		assertRetried(new Loader(CompletableFuture.completedFuture(invalid)));
+		assertRetried(new Loader(null) {
+			@Override
+			public CompletableFuture<XMLFile> get() {
+				super.get();
+				throw new IllegalStateException("loader failed");
+			}
+		});
+	}
+
+	@Test
+	public void testFailureAfterWaiting() throws Exception {
+		Loader loader = new Loader(new CompletableFuture<XMLFile>());
+		CompletableFuture<XMLFile> first = cache.get("a", loader);
+		CompletableFuture<XMLFile> second = cache.get("a", loader);
+		assertSame(first, second);
+		loader.result.completeExceptionally(new IOException("download failed"));
+		assertTrue(second.isCompletedExceptionally());
+
+		Loader retry = loaded();
+		assertSame(valid, cache.get("a", retry).get());
+		assertEquals(1, retry.calls.get());
+	}
+
+	/**
+	 * Load a file that fails and check that the next request loads it again.
+	 */
+	private void assertRetried(Loader failing) throws InterruptedException {
+		cache.clear();
+		CompletableFuture<XMLFile> future = cache.get("a", failing);
+		assertEquals(1, failing.calls.get());
+		assertTrue(future.isDone());
+		if (!future.isCompletedExceptionally()) {
+			try {
+				XMLFile file = future.get();
+				assertTrue(file == null || !file.isValid());
+			}
+			catch (ExecutionException e) {
+			}
+		}
+
+		Loader retry = loaded();
+		try {
+			assertSame(valid, cache.get("a", retry).get());
+		}
+		catch (ExecutionException e) {
+			throw new AssertionError(e);
+		}
+		assertEquals(1, retry.calls.get());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		cache.setMaxEntries(3);
+		cache.get("a", loaded());
+		cache.get("b", loaded());
+		cache.get("c", loaded());
+		//reading a makes b the least recently used
+		cache.get("a", loaded());
+		cache.get("d", loaded());
+
+		assertCached("a", true);
+		assertCached("c", true);
+		assertCached("d", true);
+		//b was evicted, loading it again drops a which is now the oldest
+		assertCached("b", false);
+		assertCached("a", false);
+	}
+
+	@Test
+	public void testShrinkEvictsOldest() throws Exception {
+		cache.get("a", loaded());
+		cache.get("b", loaded());
+		cache.get("c", loaded());
+		cache.get("a", loaded());
+		cache.setMaxEntries(2);
+		assertEquals(2, cache.getMaxEntries());
+
+		assertCached("c", true);
+		assertCached("a", true);
+		assertCached("b", false);
+	}
+
+	/**
+	 * Request a file and check whether the cache had to load it.
+	 */
+	private void assertCached(String key, boolean cached) throws Exception {
+		Loader loader = loaded();
+		assertSame(valid, cache.get(key, loader).get());
+		assertEquals(cached ? 0 : 1, loader.calls.get(), key);
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		cache.setMaxEntries(0);
+		Loader loader = loaded();
+		for (int i = 0; i < 3; i++)
+			assertSame(valid, cache.get("a", loader).get());
+		assertEquals(3, loader.calls.get());
+
+		Loader pending = new Loader(new CompletableFuture<XMLFile>());
+		cache.get("b", pending);
+		cache.get("b", pending);
+		assertEquals(2, pending.calls.get());
+
+		assertNull(cache.get("c", new Loader(null)).get());
+
+		cache.setMaxEntries(-5);
+		assertEquals(0, cache.getMaxEntries());
+	}
+}
@@ -0,0 +1,65 @@
+/***********************************************************************
+ * REDapp - ProductSpecTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Tests the confidence level of a {@link ProductSpec}.
+ */
+public class ProductSpecTest {
+
+	@Test
+	public void testDefaultConfidenceZ() {
+		ProductSpec spec = new ProductSpec();
+		assertEquals(95.0, spec.getConfidenceLevel());
+		assertEquals(1.959963984540054, spec.getConfidenceZ(), 1e-6);
+	}
+
+	@Test
+	public void testConfidenceZ() {
+		ProductSpec spec = new ProductSpec();
+		spec.setConfidenceLevel(90);
+		assertEquals(1.6448536269514722, spec.getConfidenceZ(), 1e-6);
+		spec.setConfidenceLevel(99);
+		assertEquals(2.5758293035489004, spec.getConfidenceZ(), 1e-6);
+		spec.setConfidenceLevel(68.26894921370859);
+		assertEquals(1.0, spec.getConfidenceZ(), 1e-6);
+	}
+
+	@Test
+	public void testInvalidConfidenceLevel() {
+		final ProductSpec spec = new ProductSpec();
+		for (final double level : new double[] { 0.0, 100.0, -5.0, 150.0, Double.NaN }) {
+			assertThrows(IllegalArgumentException.class, new Executable() {
+				@Override
+				public void execute() {
+					spec.setConfidenceLevel(level);
+				}
+			});
+		}
+		assertEquals(95.0, spec.getConfidenceLevel());
+	}
+}
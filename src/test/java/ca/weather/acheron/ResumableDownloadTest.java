@@ -0,0 +1,264 @@
+/***********************************************************************
+ * REDapp - ResumableDownloadTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests resuming a {@link ResumableDownload} against a local HTTP server.
+ */
+public class ResumableDownloadTest {
+	private static final String ETAG = "\"v1\"";
+
+	private HttpServer server;
+	private ResumableDownload download;
+	private final List<HttpHandler> responses = new ArrayList<HttpHandler>();
+	private final List<String> ranges = new ArrayList<String>();
+	private final List<String> ifRanges = new ArrayList<String>();
+	private byte[] data;
+	private byte[] changed;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		data = new byte[100];
+		random.nextBytes(data);
+		changed = new byte[100];
+		random.nextBytes(changed);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				HttpHandler response;
+				synchronized (responses) {
+					ranges.add(exchange.getRequestHeaders().getFirst("Range"));
+					ifRanges.add(exchange.getRequestHeaders().getFirst("If-Range"));
+					response = responses.remove(0);
+				}
+				response.handle(exchange);
+			}
+		});
+		server.start();
+		download = new ResumableDownload(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/run/file.xml.bz2"));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		download.discard();
+		server.stop(0);
+	}
+
+	/**
+	 * Queue a response that sends the given part of a body.
+	 * @param length The Content-Length to send.
+	 * @param sent The number of bytes to send before the connection is dropped.
+	 */
+	private void respond(final int code, final String range, final byte[] body, final int offset, final int length, final int sent) {
+		responses.add(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				exchange.getResponseHeaders().set("Connection", "close");
+				if (range != null)
+					exchange.getResponseHeaders().set("Content-Range", range);
+				exchange.sendResponseHeaders(code, length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body, offset, sent);
+				out.flush();
+				if (sent < length)
+					throw new IOException("dropped");
+				out.close();
+			}
+		});
+	}
+
+	private void respondStatus(final int code) {
+		responses.add(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Connection", "close");
+				exchange.sendResponseHeaders(code, -1);
+				exchange.close();
+			}
+		});
+	}
+
+	private void assertAttemptFails() {
+		assertThrows(IOException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable {
+				download.attempt();
+			}
+		});
+	}
+
+	private static void assertContents(byte[] expected, File file) throws IOException {
+		try {
+			assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+		}
+		finally {
+			Files.delete(file.toPath());
+		}
+	}
+
+	@Test
+	public void testComplete() throws IOException {
+		respond(200, null, data, 0, 100, 100);
+		File file = download.attempt();
+		assertEquals("file.xml.bz2", file.getName().substring(file.getName().length() - "file.xml.bz2".length()));
+		assertContents(data, file);
+		assertNull(ranges.get(0));
+	}
+
+	@Test
+	public void testPartialAppends() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respond(206, "bytes 40-99/100", data, 40, 60, 60);
+		assertAttemptFails();
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-"), ranges);
+		assertEquals(Arrays.asList(null, ETAG), ifRanges);
+	}
+
+	@Test
+	public void testPartialTwice() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respond(206, "bytes 40-99/100", data, 40, 60, 25);
+		respond(206, "bytes 65-99/100", data, 65, 35, 35);
+		assertAttemptFails();
+		assertAttemptFails();
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-", "bytes=65-"), ranges);
+	}
+
+	@Test
+	public void testOkRestarts() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		//the file changed so the server ignored the range and sent all of it
+		respond(200, null, changed, 0, 100, 100);
+		assertAttemptFails();
+		assertContents(changed, download.attempt());
+		assertEquals("bytes=40-", ranges.get(1));
+	}
+
+	@Test
+	public void testMismatchedRange() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respond(206, "bytes 10-99/100", data, 10, 90, 90);
+		respond(200, null, data, 0, 100, 100);
+		assertAttemptFails();
+		assertAttemptFails();
+		//the part can't be trusted any more so the whole file is requested
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-", null), ranges);
+	}
+
+	@Test
+	public void testShortRange() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		//only part of the remaining bytes would leave a truncated file
+		respond(206, "bytes 40-69/100", data, 40, 30, 30);
+		respond(200, null, data, 0, 100, 100);
+		assertAttemptFails();
+		assertAttemptFails();
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-", null), ranges);
+	}
+
+	@Test
+	public void testMismatchedLength() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respond(206, "bytes 40-99/100", data, 40, 50, 50);
+		respond(200, null, data, 0, 100, 100);
+		assertAttemptFails();
+		assertAttemptFails();
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-", null), ranges);
+	}
+
+	@Test
+	public void testRangeTotal() {
+		assertEquals(100, ResumableDownload.rangeTotal("bytes 40-99/100", 40, 60));
+		assertEquals(100, ResumableDownload.rangeTotal("bytes 40-99/100", 40, -1));
+		assertEquals(100, ResumableDownload.rangeTotal("bytes 40-99/*", 40, 60));
+		assertEquals(-1, ResumableDownload.rangeTotal(null, 40, 60));
+		assertEquals(-1, ResumableDownload.rangeTotal("bytes 41-99/100", 40, 59));
+		assertEquals(-1, ResumableDownload.rangeTotal("bytes 40-98/100", 40, 59));
+		assertEquals(-1, ResumableDownload.rangeTotal("bytes 40-99/100", 40, 50));
+		assertEquals(-1, ResumableDownload.rangeTotal("bytes */100", 40, -1));
+		assertEquals(-1, ResumableDownload.rangeTotal("items 40-99/100", 40, 60));
+		assertEquals(-1, ResumableDownload.rangeTotal("bytes 40-x/100", 40, 60));
+	}
+
+	@Test
+	public void testMissingRange() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respond(206, null, data, 40, 60, 60);
+		respond(200, null, data, 0, 100, 100);
+		assertAttemptFails();
+		assertAttemptFails();
+		assertContents(data, download.attempt());
+		assertNull(ranges.get(2));
+	}
+
+	@Test
+	public void testErrorStatus() throws IOException {
+		respond(200, null, data, 0, 100, 40);
+		respondStatus(503);
+		respond(206, "bytes 40-99/100", data, 40, 60, 60);
+		assertAttemptFails();
+		try {
+			download.attempt();
+			fail("the server error wasn't reported");
+		}
+		catch (ConditionalDownloader.HttpStatusException e) {
+			assertEquals(503, e.getCode());
+		}
+		//the received part is kept through the server error
+		assertContents(data, download.attempt());
+		assertEquals(Arrays.asList(null, "bytes=40-", "bytes=40-"), ranges);
+	}
+}
@@ -0,0 +1,267 @@
+/***********************************************************************
+ * REDapp - StationCatalogTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.acheron;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import ca.weather.acheron.Calculator.LocationSmall;
+import ca.weather.forecast.Province;
+
+/**
+ * Compares the k-d tree searches of {@link StationCatalog} with checking every
+ * location, and the province lookup with the name parsing it replaced.
+ */
+public class StationCatalogTest {
+
+	private static LocationSmall location(String name, double latitude, double longitude) {
+		LocationSmall location = new LocationSmall();
+		location.locationName = name;
+		location.country = "CA";
+		location.latitude = latitude;
+		location.longitude = longitude;
+		return location;
+	}
+
+	/**
+	 * Read the sample of the NAEFS location list, which uses the same format as
+	 * the published locations.xml.
+	 */
+	private static List<LocationSmall> readLocations() throws Exception {
+		List<LocationSmall> list = new ArrayList<LocationSmall>();
+		InputStream stream = StationCatalogTest.class.getResourceAsStream("locations.xml");
+		try {
+			NodeList nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream)
+					.getDocumentElement().getElementsByTagName("location");
+			for (int i = 0; i < nodes.getLength(); i++) {
+				Element el = (Element)nodes.item(i);
+				LocationSmall location = location(el.getAttribute("file_desc").replace('_', ' '),
+						Double.parseDouble(el.getElementsByTagName("latitude").item(0).getTextContent()),
+						Double.parseDouble(el.getElementsByTagName("longitude").item(0).getTextContent()));
+				location.country = el.getAttribute("pays_country");
+				list.add(location);
+			}
+		}
+		finally {
+			stream.close();
+		}
+		return list;
+	}
+
+	/**
+	 * The locations in a province as Calculator.getLocations(Province) found them
+	 * before the catalog replaced it.
+	 */
+	private static List<LocationSmall> reference(List<LocationSmall> list, Province prov) {
+		List<LocationSmall> provList = new ArrayList<LocationSmall>();
+		Iterator<LocationSmall> it = list.iterator();
+		String abbv = prov.abbreviation();
+		while (it.hasNext()) {
+			LocationSmall place = it.next();
+			int charMarker = place.locationName.length();
+			char[] placeChar = place.locationName.toCharArray();
+			if (placeChar[--charMarker] == 'A' || placeChar[--charMarker] == 'a') {
+				if (placeChar[--charMarker] == 'C' || placeChar[--charMarker] == 'c') {
+					--charMarker;
+					char[] chars = new char[] { placeChar[--charMarker], placeChar[--charMarker] };
+					char tmp = chars[0];
+					chars[0] = chars[1];
+					chars[1] = tmp;
+					String provinceID = new String(chars);
+					if (provinceID.compareToIgnoreCase(abbv) == 0)
+						provList.add(place);
+				}
+			}
+		}
+		return provList;
+	}
+
+	/**
+	 * The closest locations found by sorting every location by distance.
+	 */
+	private static List<LocationSmall> bruteForce(List<LocationSmall> list, final double latitude, final double longitude, int count) {
+		List<LocationSmall> sorted = new ArrayList<LocationSmall>();
+		for (LocationSmall location : list) {
+			if (!Double.isNaN(location.latitude) && !Double.isNaN(location.longitude))
+				sorted.add(location);
+		}
+		Collections.sort(sorted, new Comparator<LocationSmall>() {
+			@Override
+			public int compare(LocationSmall o1, LocationSmall o2) {
+				return Double.compare(StationCatalog.distance(latitude, longitude, o1.latitude, o1.longitude),
+						StationCatalog.distance(latitude, longitude, o2.latitude, o2.longitude));
+			}
+		});
+		return sorted.subList(0, Math.max(0, Math.min(count, sorted.size())));
+	}
+
+	private static void assertNearest(StationCatalog catalog, List<LocationSmall> list, double latitude, double longitude, int count) {
+		List<LocationSmall> expected = bruteForce(list, latitude, longitude, count);
+		List<LocationSmall> actual = catalog.nearest(latitude, longitude, count);
+		assertEquals(expected.size(), actual.size(), "count at " + latitude + "," + longitude);
+		for (int i = 0; i < expected.size(); i++) {
+			double e = StationCatalog.distance(latitude, longitude, expected.get(i).latitude, expected.get(i).longitude);
+			double a = StationCatalog.distance(latitude, longitude, actual.get(i).latitude, actual.get(i).longitude);
+			assertEquals(e, a, 1e-6, "match " + i + " at " + latitude + "," + longitude);
+		}
+	}
+
+	private static double randomLongitude(Random random) {
+		return random.nextDouble() * 360.0 - 180.0;
+	}
+
+	private static List<LocationSmall> randomLocations(Random random, int count) {
+		List<LocationSmall> list = new ArrayList<LocationSmall>();
+		for (int i = 0; i < count; i++) {
+			double latitude;
+			double longitude;
+			switch (i % 4) {
+			case 0:
+				//near the poles
+				latitude = (random.nextBoolean() ? 1 : -1) * (85.0 + random.nextDouble() * 5.0);
+				longitude = randomLongitude(random);
+				break;
+			case 1:
+				//either side of the antimeridian
+				latitude = random.nextDouble() * 180.0 - 90.0;
+				longitude = random.nextBoolean() ? 175.0 + random.nextDouble() * 5.0 : -180.0 + random.nextDouble() * 5.0;
+				break;
+			default:
+				latitude = random.nextDouble() * 180.0 - 90.0;
+				longitude = randomLongitude(random);
+				break;
+			}
+			list.add(location("Station " + i + " AB CA", latitude, longitude));
+		}
+		return list;
+	}
+
+	@Test
+	public void testNearestMatchesBruteForce() {
+		Random random = new Random(43);
+		for (int test = 0; test < 20; test++) {
+			List<LocationSmall> list = randomLocations(random, 1 + random.nextInt(400));
+			StationCatalog catalog = new StationCatalog(list);
+			for (int query = 0; query < 50; query++) {
+				double latitude = random.nextDouble() * 180.0 - 90.0;
+				double longitude = randomLongitude(random);
+				assertNearest(catalog, list, latitude, longitude, 1 + random.nextInt(10));
+			}
+		}
+	}
+
+	@Test
+	public void testNearestAcrossTheAntimeridian() {
+		Random random = new Random(47);
+		List<LocationSmall> list = randomLocations(random, 300);
+		list.add(location("East AB CA", 60.0, 179.9));
+		list.add(location("West AB CA", 60.0, -179.9));
+		StationCatalog catalog = new StationCatalog(list);
+		for (int query = 0; query < 200; query++) {
+			double latitude = random.nextDouble() * 180.0 - 90.0;
+			double longitude = random.nextBoolean() ? 179.0 + random.nextDouble() : -180.0 + random.nextDouble();
+			assertNearest(catalog, list, latitude, longitude, 1 + random.nextInt(5));
+		}
+		//the closest location is on the other side of the antimeridian
+		assertSame(list.get(list.size() - 1), catalog.nearest(60.0, -179.95));
+		assertSame(list.get(list.size() - 2), catalog.nearest(60.0, 179.95));
+		assertNearest(catalog, list, 60.0, 180.0, 2);
+	}
+
+	@Test
+	public void testNearestAtThePoles() {
+		Random random = new Random(53);
+		List<LocationSmall> list = randomLocations(random, 300);
+		StationCatalog catalog = new StationCatalog(list);
+		for (int query = 0; query < 200; query++) {
+			double latitude = (random.nextBoolean() ? 1 : -1) * (88.0 + random.nextDouble() * 2.0);
+			assertNearest(catalog, list, latitude, randomLongitude(random), 1 + random.nextInt(8));
+		}
+		assertNearest(catalog, list, 90.0, 0.0, 5);
+		assertNearest(catalog, list, -90.0, 123.0, 5);
+	}
+
+	@Test
+	public void testNearestCounts() {
+		Random random = new Random(59);
+		List<LocationSmall> list = randomLocations(random, 25);
+		//locations without a position are never returned
+		list.add(location("Nowhere AB CA", Double.NaN, Double.NaN));
+		StationCatalog catalog = new StationCatalog(list);
+		assertEquals(25, catalog.nearest(10.0, 20.0, 26).size());
+		assertEquals(25, catalog.nearest(10.0, 20.0, 1000).size());
+		assertNearest(catalog, list, 10.0, 20.0, 1000);
+		assertTrue(catalog.nearest(10.0, 20.0, 0).isEmpty());
+		assertTrue(catalog.nearest(10.0, 20.0, -3).isEmpty());
+		StationCatalog empty = new StationCatalog(new ArrayList<LocationSmall>());
+		assertTrue(empty.nearest(10.0, 20.0, 5).isEmpty());
+		assertNull(empty.nearest(10.0, 20.0));
+		assertNull(new StationCatalog(null).nearest(0.0, 0.0));
+	}
+
+	@Test
+	public void testProvincesMatchTheOldParsing() throws Exception {
+		List<LocationSmall> list = readLocations();
+		StationCatalog catalog = new StationCatalog(list);
+		int total = 0;
+		for (Province province : Province.values()) {
+			List<LocationSmall> expected = reference(list, province);
+			assertEquals(expected, catalog.getStations(province), province.abbreviation());
+			assertTrue(expected.size() > 0, province.abbreviation());
+			total += expected.size();
+		}
+		//the locations outside Canada aren't in any province
+		int canadian = 0;
+		for (LocationSmall location : list) {
+			if ("CA".equals(location.country))
+				canadian++;
+		}
+		assertEquals(canadian, total);
+		assertTrue(canadian < list.size());
+	}
+
+	@Test
+	public void testProvinceOf() {
+		assertEquals(Province.ALBERTA, StationCatalog.provinceOf("Calgary AB CA"));
+		assertEquals(Province.NEWFOUNDLAND_AND_LABRADOR, StationCatalog.provinceOf("St. John's NL CA"));
+		assertEquals(Province.QUEBEC, StationCatalog.provinceOf("Trois-Rivieres_QC_CA"));
+		assertEquals(Province.YUKON, StationCatalog.provinceOf("  Dawson YT CA "));
+		assertNull(StationCatalog.provinceOf("Seattle WA US"));
+		assertNull(StationCatalog.provinceOf("Somewhere XX CA"));
+		assertNull(StationCatalog.provinceOf("AB CA"));
+	}
+}
@@ -0,0 +1,141 @@
+/***********************************************************************
+ * REDapp - DailyWindDirectionsTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Tests binning wind directions by day the way LocationWeather does while
+ * reading the forecasts.
+ */
+public class DailyWindDirectionsTest {
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void testEachDayIsSeparate() {
+		DailyWindDirections days = new DailyWindDirections(4);
+		days.setDay(100);
+		days.add(new double[] { 10.0, 20.0 }, 0, 2);
+		days.add(new double[] { 15.0 }, 0, 1);
+		days.setDay(101);
+		days.add(new double[] { 180.0, 190.0, 10.0 }, 0, 3);
+		days.setDay(102);
+		days.add(new double[] { 270.0 }, 0, 1);
+		//the last day is not complete
+		assertEquals(2, days.size());
+		assertEquals(15.0, days.get(0), TOLERANCE);
+		//the first days directions are not included in the second day
+		assertEquals(185.0, days.get(1), TOLERANCE);
+	}
+
+	@Test
+	public void testSameDayDoesNotStore() {
+		DailyWindDirections days = new DailyWindDirections(1);
+		for (int hour = 0; hour < 24; hour += 6) {
+			days.setDay(Math.floorDiv(hour, 24));
+			days.add(new double[] { 90.0 + hour }, 0, 1);
+		}
+		assertEquals(0, days.size());
+		days.setDay(1);
+		assertEquals(1, days.size());
+		assertEquals(WindDirectionsTest.reference(list(90.0, 96.0, 102.0, 108.0)), days.get(0), TOLERANCE);
+	}
+
+	@Test
+	public void testDayWithoutDirections() {
+		DailyWindDirections days = new DailyWindDirections(2);
+		days.setDay(-3);
+		days.setDay(-2);
+		days.add(new double[] { 45.0 }, 0, 1);
+		days.setDay(-1);
+		assertEquals(2, days.size());
+		assertEquals(-1.0, days.get(0), TOLERANCE);
+		assertEquals(45.0, days.get(1), TOLERANCE);
+	}
+
+	@Test
+	public void testMatchesDailyReference() {
+		Random random = new Random(23);
+		DailyWindDirections days = new DailyWindDirections(0);
+		List<Double> expected = new ArrayList<Double>();
+		List<Double> day = new ArrayList<Double>();
+		int time = 24 * 17000 + random.nextInt(24);
+		int current = Math.floorDiv(time, 24);
+		//6 hourly forecasts of 21 members for 16 days
+		for (int forecast = 0; forecast < 65; forecast++) {
+			int forecast_day = Math.floorDiv(time, 24);
+			if (forecast_day != current) {
+				expected.add(WindDirectionsTest.reference(day));
+				day.clear();
+				current = forecast_day;
+			}
+			days.setDay(forecast_day);
+			double[] values = new double[21];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = random.nextDouble() * 360.0;
+				day.add(values[i]);
+			}
+			days.add(values, 0, values.length);
+			time += 6;
+		}
+		assertEquals(expected.size(), days.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(expected.get(i), days.get(i), TOLERANCE, "day " + i);
+	}
+
+	@Test
+	public void testClear() {
+		final DailyWindDirections days = new DailyWindDirections(1);
+		days.setDay(5);
+		days.add(new double[] { 100.0 }, 0, 1);
+		days.setDay(6);
+		days.add(new double[] { 200.0 }, 0, 1);
+		days.clear();
+		assertEquals(0, days.size());
+		//the directions of the cleared day are not carried over
+		days.setDay(6);
+		days.add(new double[] { 300.0 }, 0, 1);
+		days.setDay(7);
+		assertEquals(1, days.size());
+		assertEquals(300.0, days.get(0), TOLERANCE);
+		assertThrows(IndexOutOfBoundsException.class, new Executable() {
+			@Override
+			public void execute() {
+				days.get(1);
+			}
+		});
+	}
+
+	private static List<Double> list(double... values) {
+		List<Double> list = new ArrayList<Double>();
+		for (double d : values)
+			list.add(d);
+		return list;
+	}
+}
@@ -0,0 +1,155 @@
+/***********************************************************************
+ * REDapp - HourlySplineTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares {@link HourlySpline} with the commons-math spline it replaced.
+ */
+public class HourlySplineTest {
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * Interpolate with commons-math using knots step apart, the way the hourly values
+	 * were calculated before.
+	 */
+	private static double[] reference(double[] values, int step) {
+		double[] x = new double[values.length];
+		for (int i = 0; i < x.length; i++)
+			x[i] = i * step;
+		PolynomialSplineFunction spline = new SplineInterpolator().interpolate(x, values);
+		double[] out = new double[HourlySpline.outputLength(values.length, step)];
+		for (int i = 0; i < out.length; i++)
+			out[i] = spline.value(i);
+		return out;
+	}
+
+	private static double[] interpolate(double[] values, int count, int step) {
+		double[] out = new double[HourlySpline.outputLength(count, step)];
+		double[] work = new double[2 * count];
+		//the scratch space must not need to be cleared
+		Arrays.fill(work, 1234.5);
+		HourlySpline.interpolate(values, count, step, out, work);
+		return out;
+	}
+
+	private static void assertClose(double[] expected, double[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], actual[i], TOLERANCE * Math.max(1.0, Math.abs(expected[i])), "value " + i);
+	}
+
+	@Test
+	public void testMatchesSplineInterpolator() {
+		Random random = new Random(3);
+		for (int test = 0; test < 500; test++) {
+			int count = 3 + random.nextInt(70);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextGaussian() * 10;
+			assertClose(reference(values, 6), interpolate(values, count, 6));
+		}
+	}
+
+	@Test
+	public void testOtherSteps() {
+		double[] values = new double[] { 3.2, -1.0, 7.5, 7.4, 0.0, 12.25 };
+		for (int step = 1; step <= 12; step++)
+			assertClose(reference(values, step), interpolate(values, values.length, step));
+	}
+
+	@Test
+	public void testThreeSamples() {
+		double[] values = new double[] { 10.0, 25.0, 5.0 };
+		assertClose(reference(values, 6), interpolate(values, 3, 6));
+	}
+
+	@Test
+	public void testTwoSamplesAreLinear() {
+		double[] out = interpolate(new double[] { 2.0, 8.0 }, 2, 6);
+		assertEquals(7, out.length);
+		for (int i = 0; i < out.length; i++)
+			assertEquals(2.0 + i, out[i], TOLERANCE);
+	}
+
+	@Test
+	public void testOneSample() {
+		double[] out = interpolate(new double[] { 4.5 }, 1, 6);
+		assertEquals(1, out.length);
+		assertEquals(4.5, out[0]);
+	}
+
+	@Test
+	public void testNoSamples() {
+		assertEquals(0, HourlySpline.outputLength(0, 6));
+		HourlySpline.interpolate(new double[0], 0, 6, new double[0], new double[0]);
+	}
+
+	@Test
+	public void testOnlyCountIsRead() {
+		double[] values = new double[] { 1.0, 4.0, 2.0, 8.0, Double.NaN, Double.NaN };
+		assertClose(reference(Arrays.copyOf(values, 4), 6), interpolate(values, 4, 6));
+	}
+
+	@Test
+	public void testDuplicates() {
+		double[] constant = new double[10];
+		Arrays.fill(constant, 17.5);
+		for (double v : interpolate(constant, constant.length, 6))
+			assertEquals(17.5, v, TOLERANCE);
+		double[] values = new double[] { 5.0, 5.0, 5.0, 9.0, 9.0, 2.0, 2.0, 2.0 };
+		assertClose(reference(values, 6), interpolate(values, values.length, 6));
+	}
+
+	@Test
+	public void testKnotsAreSamples() {
+		double[] values = new double[] { 0.1, 0.7, -3.3, 2.9, 100.0, -50.0, 0.3 };
+		double[] out = interpolate(values, values.length, 6);
+		for (int i = 0; i < values.length; i++)
+			assertEquals(values[i], out[i * 6]);
+	}
+
+	@Test
+	public void testNaN() {
+		double[] values = new double[] { 1.0, 2.0, Double.NaN, 4.0, 3.0, 1.0 };
+		double[] expected = reference(values, 6);
+		double[] out = interpolate(values, values.length, 6);
+		for (int i = 0; i < out.length; i++) {
+			if (i % 6 == 0) {
+				//the knots are copied from the samples instead of evaluating the spline
+				assertEquals(values[i / 6], out[i]);
+			}
+			else {
+				assertEquals(Double.isNaN(expected[i]), Double.isNaN(out[i]), "value " + i);
+				assertTrue(Double.isNaN(out[i]), "value " + i);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/***********************************************************************
+ * REDapp - PercentilesTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the selection based {@link Percentiles} with sorting the values and
+ * interpolating between the neighbouring entries.
+ */
+public class PercentilesTest {
+
+	/**
+	 * The value at a fractional index of the sorted values, NaN sorts after every number.
+	 */
+	private static double reference(double[] values, int count, double index) {
+		if (count < 1)
+			return -1;
+		double[] sorted = Arrays.copyOf(values, count);
+		Arrays.sort(sorted);
+		index = Math.min(Math.max(index, 0.0), count - 1);
+		int low = (int)Math.floor(index);
+		int high = (int)Math.ceil(index);
+		if (low == high)
+			return sorted[low];
+		double i = index - low;
+		return ((1 - i) * sorted[low]) + (i * sorted[high]);
+	}
+
+	private static double[] indices(int count, int... percentiles) {
+		double[] indices = new double[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++)
+			indices[i] = Percentiles.index(count, percentiles[i]);
+		return indices;
+	}
+
+	private static void assertValuesAt(double[] values, int count, double[] indices) {
+		double[] out = new double[indices.length];
+		Percentiles.valuesAt(Arrays.copyOf(values, values.length), count, indices, out);
+		for (int i = 0; i < indices.length; i++) {
+			double expected = reference(values, count, indices[i]);
+			assertEquals(expected, out[i], 1e-12, "index " + indices[i] + " of " + Arrays.toString(values));
+			assertEquals(expected, Percentiles.valueAt(Arrays.copyOf(values, values.length), count, indices[i]), 1e-12,
+					"index " + indices[i] + " of " + Arrays.toString(values));
+		}
+	}
+
+	@Test
+	public void testUnsortedMultiplePercentiles() {
+		Random random = new Random(7);
+		for (int test = 0; test < 2000; test++) {
+			int count = 1 + random.nextInt(60);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextGaussian() * 20;
+			assertValuesAt(values, count, indices(count, 0, 5, 10, 25, 33, 50, 67, 75, 90, 95, 100));
+		}
+	}
+
+	@Test
+	public void testRandomIndices() {
+		Random random = new Random(11);
+		for (int test = 0; test < 2000; test++) {
+			int count = 1 + random.nextInt(45);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextDouble() * 100;
+			double[] indices = new double[1 + random.nextInt(6)];
+			for (int i = 0; i < indices.length; i++)
+				indices[i] = random.nextDouble() * (count - 1);
+			Arrays.sort(indices);
+			assertValuesAt(values, count, indices);
+		}
+	}
+
+	@Test
+	public void testDuplicates() {
+		Random random = new Random(5);
+		for (int test = 0; test < 2000; test++) {
+			int count = 1 + random.nextInt(60);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextInt(4);
+			assertValuesAt(values, count, indices(count, 0, 10, 25, 50, 75, 90, 100));
+		}
+		double[] same = new double[43];
+		Arrays.fill(same, 2.5);
+		assertValuesAt(same, same.length, indices(same.length, 0, 50, 100));
+	}
+
+	@Test
+	public void testSmallCounts() {
+		assertValuesAt(new double[] { 3.0 }, 1, indices(1, 0, 50, 100));
+		assertValuesAt(new double[] { 9.0, 3.0 }, 2, indices(2, 0, 25, 50, 90, 100));
+		assertValuesAt(new double[] { 9.0, 3.0, 6.0 }, 3, indices(3, 0, 25, 50, 90, 100));
+	}
+
+	@Test
+	public void testNoValues() {
+		double[] out = new double[2];
+		Percentiles.valuesAt(new double[0], 0, indices(0, 10, 90), out);
+		assertEquals(-1.0, out[0]);
+		assertEquals(-1.0, out[1]);
+		assertEquals(-1.0, Percentiles.valueAt(new double[0], 0, 0.0));
+		assertEquals(-1.0, Percentiles.percentile(new double[0], 0, 50));
+	}
+
+	@Test
+	public void testOnlyCountIsRead() {
+		double[] values = new double[] { 5.0, 1.0, 3.0, -100.0, 100.0, Double.NaN };
+		assertValuesAt(values, 3, indices(3, 0, 50, 75, 100));
+	}
+
+	@Test
+	public void testIndicesAreClamped() {
+		double[] values = new double[] { 4.0, 8.0, 1.0, 6.0 };
+		assertValuesAt(values, 4, new double[] { -2.0, 0.5, 7.0 });
+	}
+
+	@Test
+	public void testNaNSortsLast() {
+		double[] values = new double[] { 4.0, Double.NaN, 1.0, 7.0, Double.NaN, 2.0 };
+		assertValuesAt(values, values.length, indices(values.length, 0, 20, 40, 60, 80, 100));
+		Random random = new Random(13);
+		for (int test = 0; test < 2000; test++) {
+			int count = 1 + random.nextInt(60);
+			double[] v = new double[count];
+			for (int i = 0; i < count; i++)
+				v[i] = random.nextInt(5) == 0 ? Double.NaN : random.nextGaussian();
+			assertValuesAt(v, count, indices(count, 0, 10, 25, 50, 75, 90, 100));
+		}
+	}
+
+	@Test
+	public void testSelect() {
+		Random random = new Random(17);
+		for (int test = 0; test < 500; test++) {
+			int count = 1 + random.nextInt(80);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextInt(20);
+			double[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int k = random.nextInt(count);
+			assertEquals(sorted[k], Percentiles.select(values, count, k));
+			for (int i = 0; i < k; i++)
+				assertTrue(values[i] <= values[k]);
+			for (int i = k + 1; i < count; i++)
+				assertTrue(values[i] >= values[k]);
+		}
+	}
+}
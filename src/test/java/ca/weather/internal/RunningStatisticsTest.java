@@ -0,0 +1,166 @@
+/***********************************************************************
+ * REDapp - RunningStatisticsTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the streaming {@link RunningStatistics} with two pass calculations.
+ */
+public class RunningStatisticsTest {
+
+	private static double mean(double[] values, int count) {
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += values[i];
+		return sum / count;
+	}
+
+	/**
+	 * The population variance, summing the squared differences from the mean.
+	 */
+	private static double variance(double[] values, int count) {
+		double mean = mean(values, count);
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += (values[i] - mean) * (values[i] - mean);
+		return sum / count;
+	}
+
+	private static void assertMatches(double[] values, int count, double tolerance) {
+		RunningStatistics stats = new RunningStatistics();
+		stats.add(values, 0, count);
+		double mean = mean(values, count);
+		double variance = variance(values, count);
+		double min = values[0];
+		double max = values[0];
+		for (int i = 1; i < count; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		assertEquals(count, stats.getCount());
+		assertEquals(mean, stats.getMean(), tolerance * Math.max(1.0, Math.abs(mean)));
+		assertEquals(variance, stats.getVariance(), tolerance * Math.max(1.0, variance));
+		assertEquals(Math.sqrt(variance), stats.getStandardDeviation(), tolerance * Math.max(1.0, Math.sqrt(variance)));
+		assertEquals(min, stats.getMin());
+		assertEquals(max, stats.getMax());
+	}
+
+	@Test
+	public void testMatchesTwoPass() {
+		Random random = new Random(31);
+		for (int test = 0; test < 1000; test++) {
+			int count = 1 + random.nextInt(50);
+			double[] values = new double[count];
+			for (int i = 0; i < count; i++)
+				values[i] = random.nextGaussian() * 15 - 5;
+			assertMatches(values, count, 1e-10);
+		}
+	}
+
+	@Test
+	public void testLargeOffset() {
+		//a sum of squares would lose the variance to cancellation at this offset
+		Random random = new Random(37);
+		for (double offset : new double[] { 1e6, 1e9, -1e9 }) {
+			double[] values = new double[43];
+			for (int i = 0; i < values.length; i++)
+				values[i] = offset + random.nextGaussian();
+			assertMatches(values, values.length, 1e-6);
+			RunningStatistics stats = new RunningStatistics();
+			stats.add(values, 0, values.length);
+			assertTrue(Math.abs(stats.getVariance() - variance(values, values.length)) < 1e-6);
+		}
+		RunningStatistics stats = new RunningStatistics();
+		stats.add(new double[] { 1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16 }, 0, 4);
+		assertEquals(1e9 + 10, stats.getMean(), 1e-6);
+		assertEquals(22.5, stats.getVariance(), 1e-6);
+	}
+
+	@Test
+	public void testMinMax() {
+		RunningStatistics stats = new RunningStatistics();
+		stats.add(-3.0);
+		assertEquals(-3.0, stats.getMin());
+		assertEquals(-3.0, stats.getMax());
+		stats.add(new double[] { 99.0, 4.0, -7.5, 2.0, 0.0 }, 1, 3);
+		assertEquals(4, stats.getCount());
+		assertEquals(-7.5, stats.getMin());
+		assertEquals(4.0, stats.getMax());
+	}
+
+	@Test
+	public void testEmpty() {
+		RunningStatistics stats = new RunningStatistics();
+		assertEmpty(stats);
+		stats.add(new double[] { 1.0, 2.0 }, 0, 2);
+		stats.clear();
+		assertEmpty(stats);
+		//a cleared instance starts again
+		stats.add(5.0);
+		assertEquals(5.0, stats.getMean());
+		assertEquals(0.0, stats.getVariance());
+		assertEquals(5.0, stats.getMin());
+		assertEquals(5.0, stats.getMax());
+	}
+
+	private static void assertEmpty(RunningStatistics stats) {
+		assertEquals(0, stats.getCount());
+		assertTrue(Double.isNaN(stats.getMean()));
+		assertTrue(Double.isNaN(stats.getVariance()));
+		assertTrue(Double.isNaN(stats.getStandardDeviation()));
+		assertTrue(Double.isNaN(stats.getMin()));
+		assertTrue(Double.isNaN(stats.getMax()));
+		assertTrue(Double.isNaN(stats.getLowerConfidenceBound(1.96)));
+		assertTrue(Double.isNaN(stats.getUpperConfidenceBound(1.96)));
+	}
+
+	@Test
+	public void testConfidenceBounds() {
+		RunningStatistics stats = new RunningStatistics();
+		//mean 5, population standard deviation 2 and 4 values so the standard error is 1
+		stats.add(new double[] { 3.0, 3.0, 7.0, 7.0 }, 0, 4);
+		assertEquals(5.0, stats.getMean(), 1e-12);
+		assertEquals(2.0, stats.getStandardDeviation(), 1e-12);
+		assertEquals(5.0 - 1.96, stats.getLowerConfidenceBound(1.96), 1e-12);
+		assertEquals(5.0 + 1.96, stats.getUpperConfidenceBound(1.96), 1e-12);
+		assertEquals(5.0, stats.getLowerConfidenceBound(0.0), 1e-12);
+		Random random = new Random(41);
+		double[] values = new double[21];
+		for (int i = 0; i < values.length; i++)
+			values[i] = random.nextDouble() * 30;
+		stats.clear();
+		stats.add(values, 0, values.length);
+		double error = Math.sqrt(variance(values, values.length) / values.length);
+		assertEquals(mean(values, values.length) - 2.5758 * error, stats.getLowerConfidenceBound(2.5758), 1e-10);
+		assertEquals(mean(values, values.length) + 2.5758 * error, stats.getUpperConfidenceBound(2.5758), 1e-10);
+		//a single value has no spread
+		stats.clear();
+		stats.add(8.0);
+		assertEquals(8.0, stats.getLowerConfidenceBound(1.96), 1e-12);
+		assertEquals(8.0, stats.getUpperConfidenceBound(1.96), 1e-12);
+	}
+}
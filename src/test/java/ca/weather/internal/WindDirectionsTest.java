@@ -0,0 +1,191 @@
+/***********************************************************************
+ * REDapp - WindDirectionsTest.java
+ * Copyright (C) 2015-2022 The REDapp Development Team
+ * Homepage: http://redapp.org
+ * 
+ * REDapp is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * REDapp is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REDapp. If not see <http://www.gnu.org/licenses/>. 
+ **********************************************************************/
+
+
+package ca.weather.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares {@link WindDirections} with the list based predominant wind
+ * direction that LocationWeather used before.
+ */
+public class WindDirectionsTest {
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * The predominant average wind direction as it was calculated before
+	 * {@link WindDirections} replaced it.
+	 */
+	static double reference(List<Double> value_list) {
+		if (value_list.size() < 1)
+			return -1;
+		List<Double> v0 = new ArrayList<Double>();
+		List<Double> v45 = new ArrayList<Double>();
+		List<Double> v90 = new ArrayList<Double>();
+		List<Double> v135 = new ArrayList<Double>();
+		List<Double> v180 = new ArrayList<Double>();
+		List<Double> v225 = new ArrayList<Double>();
+		List<Double> v270 = new ArrayList<Double>();
+		List<Double> v315 = new ArrayList<Double>();
+
+		for (double dir : value_list) {
+			if (dir <= 22.5)
+				v0.add(dir);
+			else if (dir <= (45.0 + 22.5))
+				v45.add(dir);
+			else if (dir <= (90.0 + 22.5))
+				v90.add(dir);
+			else if (dir <= (135.0 + 22.5))
+				v135.add(dir);
+			else if (dir <= (180.0 + 22.5))
+				v180.add(dir);
+			else if (dir <= (225.0 + 22.5))
+				v225.add(dir);
+			else if (dir <= (270.0 + 22.5))
+				v270.add(dir);
+			else if (dir <= (315.0 + 22.5))
+				v315.add(dir);
+			else
+				v0.add(dir - 360.0);
+		}
+		double m = 0;
+		List<List<Double>> v_set = new ArrayList<List<Double>>();
+		v_set.add(v0);
+		v_set.add(v45);
+		v_set.add(v90);
+		v_set.add(v135);
+		v_set.add(v180);
+		v_set.add(v225);
+		v_set.add(v270);
+		v_set.add(v315);
+		List<Double> m_list = null;
+		for (List<Double> l : v_set) {
+			if (l.size() > m) {
+				m = l.size();
+				m_list = l;
+			}
+		}
+		double avg = 0;
+		for (double d : m_list) {
+			avg = avg + d;
+		}
+		avg = avg / ((double) m_list.size());
+		if (avg < 0.0)
+			avg = avg + 360.0;
+		return avg;
+	}
+
+	private static List<Double> list(double... values) {
+		List<Double> list = new ArrayList<Double>();
+		for (double d : values)
+			list.add(d);
+		return list;
+	}
+
+	private static void assertMatches(double... values) {
+		double expected = reference(list(values));
+		WindDirections directions = new WindDirections();
+		for (double d : values)
+			directions.add(d);
+		assertEquals(values.length, directions.size());
+		assertEquals(expected, directions.predominantAverage(), TOLERANCE);
+		assertEquals(expected, directions.predominantAverage(values, 0, values.length), TOLERANCE);
+	}
+
+	@Test
+	public void testEmpty() {
+		WindDirections directions = new WindDirections();
+		assertEquals(-1.0, directions.predominantAverage(), TOLERANCE);
+		assertEquals(-1.0, directions.predominantAverage(new double[] { 90.0 }, 1, 0), TOLERANCE);
+		assertEquals(-1.0, reference(new ArrayList<Double>()), TOLERANCE);
+	}
+
+	@Test
+	public void testSectorBoundaries() {
+		//the upper edge of each sector belongs to it
+		for (int sector = 0; sector < 8; sector++) {
+			double edge = sector * 45.0 + 22.5;
+			assertMatches(edge);
+			assertMatches(edge, edge - 1.0);
+			assertMatches(edge, Math.nextUp(edge));
+			assertMatches(Math.nextUp(edge), edge + 5.0, edge);
+		}
+		assertMatches(22.5, 22.6);
+		assertMatches(337.5, 337.6, 340.0);
+		assertEquals(337.5, new WindDirections().predominantAverage(new double[] { 337.5 }, 0, 1), TOLERANCE);
+	}
+
+	@Test
+	public void testWrapAround() {
+		assertMatches(350.0, 10.0);
+		assertEquals(0.0, new WindDirections().predominantAverage(new double[] { 350.0, 10.0 }, 0, 2), TOLERANCE);
+		assertMatches(350.0, 355.0, 10.0);
+		assertEquals(355.0, new WindDirections().predominantAverage(new double[] { 340.0, 10.0 }, 0, 2), TOLERANCE);
+		assertMatches(360.0);
+		assertMatches(0.0, 360.0);
+		assertMatches(337.6);
+	}
+
+	@Test
+	public void testTies() {
+		//ties go to the first sector clockwise from north
+		assertMatches(10.0, 100.0);
+		assertMatches(100.0, 10.0);
+		assertEquals(10.0, new WindDirections().predominantAverage(new double[] { 100.0, 10.0 }, 0, 2), TOLERANCE);
+		assertMatches(200.0, 100.0, 300.0);
+		assertMatches(350.0, 50.0, 55.0, 5.0);
+		assertMatches(90.0, 90.0, 270.0, 270.0, 180.0);
+	}
+
+	@Test
+	public void testRandomDirections() {
+		Random random = new Random(21);
+		for (int test = 0; test < 5000; test++) {
+			double[] values = new double[1 + random.nextInt(45)];
+			for (int i = 0; i < values.length; i++) {
+				//include directions on the sector edges
+				if (random.nextBoolean())
+					values[i] = random.nextInt(17) * 22.5;
+				else
+					values[i] = random.nextDouble() * 360.0;
+			}
+			assertMatches(values);
+		}
+	}
+
+	@Test
+	public void testSliceAndReuse() {
+		double[] values = new double[] { 180.0, 10.0, 20.0, 200.0, 90.0 };
+		WindDirections directions = new WindDirections();
+		assertEquals(reference(list(10.0, 20.0, 200.0)), directions.predominantAverage(values, 1, 3), TOLERANCE);
+		//each call starts from an empty set
+		assertEquals(reference(list(200.0, 90.0)), directions.predominantAverage(values, 3, 2), TOLERANCE);
+		directions.clear();
+		assertEquals(0, directions.size());
+		directions.add(values, 0, 1);
+		assertEquals(180.0, directions.predominantAverage(), TOLERANCE);
+	}
+}